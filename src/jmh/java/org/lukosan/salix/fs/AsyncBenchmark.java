@@ -0,0 +1,87 @@
+package org.lukosan.salix.fs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.lukosan.salix.SalixTemplate;
+import org.lukosan.salix.SalixUrl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loads a page's worth of urls and their templates over a slow disk, one after another on the calling thread and
+ * all at once through the async client. Each request thread stands for a servlet thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(8)
+@Fork(1)
+public class AsyncBenchmark {
+
+	@Param({ "1000" })
+	private int urls;
+	@Param({ "16" })
+	private int batch;
+	@Param({ "0", "1000" })
+	private long delayMicros;
+
+	private FsFixture fixture;
+	private FsSalixService service;
+
+	@Setup
+	public void setup() throws IOException {
+		fixture = new FsFixture(".yml").property("salix.fs.async.enabled", "true")
+				.client(client -> new SlowFsClient(client, delayMicros)).urls(urls).templates(10);
+		service = fixture.start();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		fixture.close();
+	}
+
+	@Benchmark
+	public int sync() {
+		int found = 0;
+		for(int i = 0; i < batch; i++) {
+			int n = ThreadLocalRandom.current().nextInt(urls);
+			SalixUrl url = service.url(FsFixture.url(n), FsFixture.SCOPE);
+			SalixTemplate template = service.template(url.getView(), FsFixture.SCOPE);
+			if(null != template)
+				found++;
+		}
+		return found;
+	}
+
+	@Benchmark
+	public int async() {
+		List<CompletableFuture<SalixTemplate>> futures = new ArrayList<CompletableFuture<SalixTemplate>>(batch);
+		for(int i = 0; i < batch; i++) {
+			int n = ThreadLocalRandom.current().nextInt(urls);
+			futures.add(service.urlAsync(FsFixture.url(n), FsFixture.SCOPE).thenCompose(url -> service.templateAsync(url.getView(), FsFixture.SCOPE)));
+		}
+		int found = 0;
+		for(CompletableFuture<SalixTemplate> future : futures)
+			if(null != future.join())
+				found++;
+		return found;
+	}
+}
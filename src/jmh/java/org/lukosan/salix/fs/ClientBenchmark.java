@@ -0,0 +1,67 @@
+package org.lukosan.salix.fs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Path resolution through the FsClient at request rate; run with -prof gc for the allocation per lookup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ClientBenchmark {
+
+	private FsFixture fixture;
+	private FsClient client;
+	private int i;
+
+	@Setup
+	public void setup() throws IOException {
+		fixture = new FsFixture(".yml").urls(1000);
+		fixture.start();
+		client = fixture.getClient();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		fixture.close();
+	}
+
+	@Benchmark
+	public long lastModified() {
+		return client.lastModified(FsFixture.SCOPE, "urls", FsFixture.url(i++ % 1000) + ".yml");
+	}
+
+	@Benchmark
+	public int getInputStream() throws IOException {
+		try (InputStream in = client.getInputStream(FsFixture.SCOPE, "urls", FsFixture.url(i++ % 1000) + ".yml")) {
+			return in.read();
+		}
+	}
+
+	@Benchmark
+	public InputStream getInputStreamMissing() {
+		return client.getInputStream(FsFixture.SCOPE, "urls", FsFixture.url(i++ % 1000) + ".missing");
+	}
+
+	@Benchmark
+	public boolean exists() {
+		return client.exists(FsFixture.SCOPE, "urls", FsFixture.url(i++ % 1000) + ".yml");
+	}
+}
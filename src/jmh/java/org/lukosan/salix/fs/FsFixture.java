@@ -0,0 +1,170 @@
+package org.lukosan.salix.fs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+import org.apache.commons.io.FileUtils;
+import org.lukosan.salix.SalixService;
+import org.lukosan.salix.autoconfigure.FsAutoConfiguration;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.core.env.MapPropertySource;
+import org.yaml.snakeyaml.Yaml;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Generates a salix tree of a given size in a temporary folder and wires an {@link FsSalixService} onto it.
+ */
+public class FsFixture implements Closeable {
+
+	public static final String SCOPE = "bench";
+
+	private final Path root;
+	private final String urlSuffix;
+	private final Map<String, Object> properties = new HashMap<String, Object>();
+	private Function<FsClient, FsClient> decorator;
+	private AnnotationConfigApplicationContext context;
+
+	public FsFixture(String urlSuffix) throws IOException {
+		this.root = Files.createTempDirectory("salix-fs-bench");
+		this.urlSuffix = urlSuffix;
+		property("salix.fs.path", root.toString());
+		property("salix.fs.url.suffix", urlSuffix);
+	}
+
+	public static String url(int i) {
+		return "/section-" + (i % 10) + "/page-" + i;
+	}
+
+	public static String template(int i) {
+		return "template-" + i;
+	}
+
+	public static String target(int i) {
+		return "target-" + i;
+	}
+
+	public FsFixture property(String name, Object value) {
+		properties.put(name, value);
+		return this;
+	}
+
+	/**
+	 * Has the service use the given decoration of a plain {@link NixFsClient} on the tree.
+	 */
+	public FsFixture client(Function<FsClient, FsClient> decorator) {
+		this.decorator = decorator;
+		return this;
+	}
+
+	public FsFixture urls(int count) throws IOException {
+		ObjectMapper mapper = new ObjectMapper();
+		Yaml yaml = new Yaml();
+		for(int i = 0; i < count; i++) {
+			Map<String, Object> url = new LinkedHashMap<String, Object>();
+			url.put("scope", SCOPE);
+			url.put("url", url(i));
+			url.put("view", template(i % 10));
+			url.put("status", 200);
+			url.put("map", map(i));
+			Path file = root.resolve(SCOPE + "/urls" + url(i) + urlSuffix);
+			Files.createDirectories(file.getParent());
+			try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+				if(urlSuffix.endsWith("json"))
+					mapper.writeValue(writer, url);
+				else
+					yaml.dump(url, writer);
+			}
+		}
+		return this;
+	}
+
+	public FsFixture templates(int count) throws IOException {
+		StringBuilder source = new StringBuilder("<html><body>\n");
+		while(source.length() < 2048)
+			source.append("<p th:text=\"${map.title}\">Lorem ipsum dolor sit amet</p>\n");
+		source.append("</body></html>\n");
+		for(int i = 0; i < count; i++)
+			write(SCOPE + "/templates/" + template(i) + ".html", source.toString().getBytes(StandardCharsets.UTF_8));
+		return this;
+	}
+
+	public FsFixture configurations(int count) throws IOException {
+		ObjectMapper mapper = new ObjectMapper();
+		for(int i = 0; i < count; i++)
+			write(SCOPE + "/configurations/" + target(i) + ".json", mapper.writeValueAsBytes(new FsSalixConfiguration(SCOPE, target(i), map(i))));
+		return this;
+	}
+
+	public FsFixture resource(String sourceId, int size) throws IOException {
+		byte[] bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		write(SCOPE + "/resources/" + sourceId, bytes);
+		return this;
+	}
+
+	public FsSalixService start() {
+		context = new AnnotationConfigApplicationContext();
+		context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("fixture", properties));
+		if(null != decorator)
+			context.getBeanFactory().registerSingleton("fsClient", decorator.apply(new NixFsClient(root.toString())));
+		context.register(Placeholders.class, FsAutoConfiguration.SalixFsConfiguration.class);
+		context.refresh();
+		return (FsSalixService) context.getBean(SalixService.class);
+	}
+
+	public Path getRoot() {
+		return root;
+	}
+
+	public FsClient getClient() {
+		return context.getBean(FsClient.class);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(null != context)
+			context.close();
+		FileUtils.deleteDirectory(root.toFile());
+	}
+
+	public static Map<String, Object> map(int i) {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("title", "Page " + i);
+		map.put("description", "A generated page for benchmarking the salix file-system module");
+		Map<String, Object> nested = new LinkedHashMap<String, Object>();
+		nested.put("weight", i);
+		nested.put("tags", new String[] { "alpha", "beta", "gamma" });
+		map.put("meta", nested);
+		return map;
+	}
+
+	private void write(String path, byte[] bytes) throws IOException {
+		Path file = root.resolve(path);
+		Files.createDirectories(file.getParent());
+		try (OutputStream out = Files.newOutputStream(file)) {
+			out.write(bytes);
+		}
+	}
+
+	@Configuration
+	static class Placeholders {
+		@Bean
+		public static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
+			return new PropertySourcesPlaceholderConfigurer();
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package org.lukosan.salix.fs;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.lukosan.salix.SalixConfiguration;
+import org.lukosan.salix.SalixResource;
+import org.lukosan.salix.SalixTemplate;
+import org.lukosan.salix.SalixUrl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ListingBenchmark {
+
+	@Param({ "1000", "10000" })
+	private int size;
+	@Param({ "1", "0" })
+	private int parallelism;
+
+	private FsFixture fixture;
+	private FsSalixService service;
+
+	@Setup
+	public void setup() throws IOException {
+		fixture = new FsFixture(".yml").property("salix.fs.parallelism", parallelism)
+				.urls(size).templates(size / 10).configurations(size / 10);
+		for(int i = 0; i < size / 10; i++)
+			fixture.resource("resource-" + i + ".css", 512);
+		service = fixture.start();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		fixture.close();
+	}
+
+	@Benchmark
+	public List<SalixUrl> urlsIn() {
+		return service.urlsIn(FsFixture.SCOPE);
+	}
+
+	@Benchmark
+	public List<SalixTemplate> templatesIn() {
+		return service.templatesIn(FsFixture.SCOPE);
+	}
+
+	@Benchmark
+	public List<SalixResource> resourcesIn() {
+		return service.resourcesIn(FsFixture.SCOPE);
+	}
+
+	@Benchmark
+	public List<SalixConfiguration> configurationsIn() {
+		return service.configurationsIn(FsFixture.SCOPE);
+	}
+}
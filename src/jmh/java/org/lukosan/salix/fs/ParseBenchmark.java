@@ -0,0 +1,87 @@
+package org.lukosan.salix.fs;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.lukosan.salix.SalixUrl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yaml.snakeyaml.Yaml;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Parsing one url file: as saved (JSON in a .yml file), as hand-written YAML, and as a .json file; each through
+ * {@link FsReaders} and through the binding the service used before it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ParseBenchmark {
+
+	private ObjectMapper mapper;
+	private FsReaders readers;
+	private Yaml yaml;
+	private byte[] json;
+	private byte[] yamlBytes;
+
+	@Setup
+	public void setup() throws IOException {
+		mapper = new ObjectMapper();
+		readers = new FsReaders(mapper);
+		yaml = new Yaml();
+		Map<String, Object> url = new LinkedHashMap<String, Object>();
+		url.put("scope", FsFixture.SCOPE);
+		url.put("url", FsFixture.url(1));
+		url.put("view", FsFixture.template(1));
+		url.put("status", 200);
+		url.put("map", FsFixture.map(1));
+		json = mapper.writeValueAsBytes(url);
+		yamlBytes = yaml.dump(url).getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public SalixUrl savedYamlLoadAs() {
+		return yaml.loadAs(new ByteArrayInputStream(json), FsSalixUrl.class);
+	}
+
+	@Benchmark
+	public SalixUrl savedReaders() {
+		return readers.readUrl(new ByteArrayInputStream(json), ".yml");
+	}
+
+	@Benchmark
+	public SalixUrl yamlLoadAs() {
+		return yaml.loadAs(new ByteArrayInputStream(yamlBytes), FsSalixUrl.class);
+	}
+
+	@Benchmark
+	public SalixUrl yamlReaders() {
+		return readers.readUrl(new ByteArrayInputStream(yamlBytes), ".yml");
+	}
+
+	@Benchmark
+	public SalixUrl jsonDataBinding() throws IOException {
+		return mapper.readValue(new ByteArrayInputStream(json), FsSalixUrl.class);
+	}
+
+	@Benchmark
+	public SalixUrl jsonReaders() {
+		return readers.readUrl(new ByteArrayInputStream(json), ".json");
+	}
+}
@@ -0,0 +1,84 @@
+package org.lukosan.salix.fs;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.lukosan.salix.ResourceWriter;
+import org.lukosan.salix.SalixResource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ResourceBenchmark {
+
+	@Param({ "1024", "16777216" })
+	private int size;
+	@Param({ "0", "33554432" })
+	private long cacheSize;
+
+	private FsFixture fixture;
+	private SalixResource resource;
+	private FileOutputStream sink;
+	private ResourceWriter streamWriter;
+	private ResourceWriter channelWriter;
+
+	@Setup
+	public void setup() throws IOException {
+		fixture = new FsFixture(".yml").property("salix.fs.resource.cache.size", cacheSize).resource("resource.bin", size);
+		resource = fixture.start().resource("resource.bin", FsFixture.SCOPE);
+		streamWriter = new ResourceWriter() {
+			@Override
+			public OutputStream getOutputStream() {
+				return NullOutputStream.NULL_OUTPUT_STREAM;
+			}
+		};
+		sink = new FileOutputStream("/dev/null");
+		FileChannel channel = sink.getChannel();
+		channelWriter = new FsResourceWriter() {
+			@Override
+			public OutputStream getOutputStream() {
+				return sink;
+			}
+			@Override
+			public WritableByteChannel getChannel() {
+				return channel;
+			}
+		};
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		sink.close();
+		fixture.close();
+	}
+
+	@Benchmark
+	public void writeToStream() throws IOException {
+		resource.writeTo(streamWriter);
+	}
+
+	@Benchmark
+	public void writeToChannel() throws IOException {
+		resource.writeTo(channelWriter);
+	}
+}
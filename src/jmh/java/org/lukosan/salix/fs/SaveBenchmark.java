@@ -0,0 +1,62 @@
+package org.lukosan.salix.fs;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.lukosan.salix.SalixConfiguration;
+import org.lukosan.salix.SalixUrl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Threads(4)
+@Fork(1)
+public class SaveBenchmark {
+
+	@Param({ "1000" })
+	private int keys;
+	@Param({ "false", "true" })
+	private boolean fsync;
+
+	private FsFixture fixture;
+	private FsSalixService service;
+
+	@Setup
+	public void setup() throws IOException {
+		fixture = new FsFixture(".yml").property("salix.fs.fsync", fsync);
+		service = fixture.start();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		fixture.close();
+	}
+
+	@Benchmark
+	public SalixConfiguration saveConfiguration() {
+		int i = ThreadLocalRandom.current().nextInt(keys);
+		return service.save(FsFixture.SCOPE, FsFixture.target(i), FsFixture.map(i));
+	}
+
+	@Benchmark
+	public SalixUrl saveUrl() {
+		int i = ThreadLocalRandom.current().nextInt(keys);
+		return service.save(new FsSalixUrl(FsFixture.SCOPE, FsFixture.url(i), 200, FsFixture.template(i % 10), FsFixture.map(i)));
+	}
+}
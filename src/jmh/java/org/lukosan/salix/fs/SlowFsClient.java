@@ -0,0 +1,123 @@
+package org.lukosan.salix.fs;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Decorates an {@link FsClient}, holding each call for a fixed time first, as a slow or remote disk would.
+ */
+public class SlowFsClient implements FsClient {
+
+	private final FsClient client;
+	private final long delayNanos;
+
+	public SlowFsClient(FsClient client, long delayMicros) {
+		this.client = client;
+		this.delayNanos = TimeUnit.MICROSECONDS.toNanos(delayMicros);
+	}
+
+	private void delay() {
+		long end = System.nanoTime() + delayNanos;
+		for(long left = delayNanos; left > 0; left = end - System.nanoTime())
+			LockSupport.parkNanos(left);
+	}
+
+	@Override
+	public boolean putInputStream(InputStream in, String... paths) {
+		delay();
+		return client.putInputStream(in, paths);
+	}
+
+	@Override
+	public InputStream getInputStream(String... paths) {
+		delay();
+		return client.getInputStream(paths);
+	}
+
+	@Override
+	public ReadableByteChannel getChannel(String... paths) {
+		delay();
+		return client.getChannel(paths);
+	}
+
+	@Override
+	public int read(ByteBuffer dst, long position, String... paths) {
+		delay();
+		return client.read(dst, position, paths);
+	}
+
+	@Override
+	public ByteBuffer map(String... paths) {
+		delay();
+		return client.map(paths);
+	}
+
+	@Override
+	public List<String> listFoldersInFolder(String... paths) {
+		delay();
+		return client.listFoldersInFolder(paths);
+	}
+
+	@Override
+	public List<String> listFilesInFolder(String... paths) {
+		delay();
+		return client.listFilesInFolder(paths);
+	}
+
+	@Override
+	public boolean exists(String... paths) {
+		delay();
+		return client.exists(paths);
+	}
+
+	@Override
+	public List<String> listFilesInSubFolders(String... paths) {
+		delay();
+		return client.listFilesInSubFolders(paths);
+	}
+
+	@Override
+	public List<String> listFilesInSubFolders(int maxDepth, String glob, String... paths) {
+		delay();
+		return client.listFilesInSubFolders(maxDepth, glob, paths);
+	}
+
+	@Override
+	public Stream<String> streamFilesInFolder(String... paths) {
+		delay();
+		return client.streamFilesInFolder(paths);
+	}
+
+	@Override
+	public Stream<String> streamFilesInSubFolders(String... paths) {
+		delay();
+		return client.streamFilesInSubFolders(paths);
+	}
+
+	@Override
+	public long lastModified(String... paths) {
+		delay();
+		return client.lastModified(paths);
+	}
+
+	@Override
+	public long length(String... paths) {
+		delay();
+		return client.length(paths);
+	}
+
+	@Override
+	public String contentKey(String... paths) {
+		return client.contentKey(paths);
+	}
+
+	@Override
+	public boolean isWritable(String... paths) {
+		return client.isWritable(paths);
+	}
+}
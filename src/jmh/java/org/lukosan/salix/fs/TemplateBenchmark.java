@@ -0,0 +1,52 @@
+package org.lukosan.salix.fs;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.lukosan.salix.SalixTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TemplateBenchmark {
+
+	@Param({ "100" })
+	private int templates;
+	@Param({ "0", "16777216" })
+	private long cacheSize;
+
+	private FsFixture fixture;
+	private FsSalixService service;
+
+	@Setup
+	public void setup() throws IOException {
+		fixture = new FsFixture(".yml").property("salix.fs.template.cache.size", cacheSize).templates(templates);
+		service = fixture.start();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		fixture.close();
+	}
+
+	@Benchmark
+	public SalixTemplate template() {
+		return service.template(FsFixture.template(ThreadLocalRandom.current().nextInt(templates)), FsFixture.SCOPE);
+	}
+}
@@ -0,0 +1,59 @@
+package org.lukosan.salix.fs;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.lukosan.salix.SalixUrl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class UrlBenchmark {
+
+	@Param({ ".yml", ".json" })
+	private String suffix;
+	@Param({ "1000" })
+	private int urls;
+	@Param({ "false", "true" })
+	private boolean indexed;
+
+	private FsFixture fixture;
+	private FsSalixService service;
+
+	@Setup
+	public void setup() throws IOException {
+		fixture = new FsFixture(suffix).property("salix.fs.url.indexed", indexed).urls(urls);
+		service = fixture.start();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		fixture.close();
+	}
+
+	@Benchmark
+	public SalixUrl url() {
+		return service.url(FsFixture.url(ThreadLocalRandom.current().nextInt(urls)), FsFixture.SCOPE);
+	}
+
+	@Benchmark
+	public SalixUrl missingUrl() {
+		return service.url("/missing-" + ThreadLocalRandom.current().nextInt(urls), FsFixture.SCOPE);
+	}
+}
@@ -5,12 +5,33 @@ import javax.annotation.PostConstruct;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.lukosan.salix.SalixService;
+import org.lukosan.salix.fs.AsyncFsClient;
+import org.lukosan.salix.fs.DedupFsClient;
+import org.lukosan.salix.fs.ExecutorAsyncFsClient;
 import org.lukosan.salix.fs.FsClient;
+import org.lukosan.salix.fs.FsResourceCache;
 import org.lukosan.salix.fs.FsSalixService;
+import org.lukosan.salix.fs.FsWarmer;
+import org.lukosan.salix.fs.FsWatcher;
+import org.lukosan.salix.fs.InstrumentedFsClient;
 import org.lukosan.salix.fs.NixFsClient;
+import org.lukosan.salix.fs.TieredFsClient;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.NoUniqueBeanDefinitionException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.EnvironmentAware;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import io.micrometer.core.instrument.MeterRegistry;
 
 @Configuration
 public class FsAutoConfiguration {
@@ -33,10 +54,120 @@ public class FsAutoConfiguration {
 		
 		@Bean
 		@ConditionalOnMissingBean(FsClient.class)
+		@ConditionalOnProperty(name = "salix.fs.client", havingValue = "nix", matchIfMissing = true)
 		public FsClient nixFsClient() {
 			return new NixFsClient();
 		}
 		
+		@Bean
+		@ConditionalOnMissingBean(FsClient.class)
+		@ConditionalOnProperty(name = "salix.fs.client", havingValue = "dedup")
+		public FsClient dedupFsClient() {
+			return new DedupFsClient();
+		}
+		
+		@Bean
+		@ConditionalOnMissingBean(FsClient.class)
+		@ConditionalOnProperty(name = "salix.fs.client", havingValue = "tiered")
+		public FsClient tieredFsClient(@Value("${salix.fs.path}") String rootPath, @Value("${salix.fs.tier.path}") String tierPath,
+				@Value("${salix.fs.tier.size:1073741824}") long tierSize, @Value("${salix.fs.tier.revalidate:5000}") long revalidate,
+				@Value("${salix.fs.fsync:false}") boolean fsync, @Value("${salix.fs.mmap.threshold:1048576}") long mmapThreshold,
+				@Value("${salix.fs.mmap.files:64}") int mmapFiles, FsWatcher watcher) {
+			TieredFsClient client = new TieredFsClient(new NixFsClient(rootPath, fsync, mmapThreshold, mmapFiles), tierPath, tierSize, revalidate);
+			// ahead of the service's own listeners, so they read past the stale copies when they hear of a change
+			watcher.addListener(client);
+			return client;
+		}
+		
+		@Bean
+		@ConditionalOnMissingBean(FsWatcher.class)
+		public FsWatcher fsWatcher() {
+			return new FsWatcher();
+		}
+		
+		@Bean
+		@ConditionalOnMissingBean(AsyncFsClient.class)
+		@ConditionalOnProperty(name = "salix.fs.async.enabled", havingValue = "true")
+		public AsyncFsClient asyncFsClient() {
+			return new ExecutorAsyncFsClient();
+		}
+		
+		@Bean
+		@ConditionalOnProperty(name = "salix.fs.warmup.enabled", havingValue = "true")
+		public FsWarmer fsWarmer() {
+			return new FsWarmer((FsSalixService) fsSalixService());
+		}
+		
+	}
+	
+	@Configuration
+	@ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+	public static class SalixFsMetricsConfiguration {
+		
+		@Bean
+		public static InstrumentedFsClientPostProcessor instrumentedFsClientPostProcessor() {
+			return new InstrumentedFsClientPostProcessor();
+		}
+		
+	}
+	
+	/**
+	 * Wraps the FsClient in an InstrumentedFsClient when the context has a MeterRegistry, and gauges the
+	 * FsSalixService's resource cache.
+	 */
+	public static class InstrumentedFsClientPostProcessor implements BeanPostProcessor, BeanFactoryAware, EnvironmentAware {
+		
+		private static final Log logger = LogFactory.getLog(InstrumentedFsClientPostProcessor.class);
+		
+		private ListableBeanFactory beanFactory;
+		private Environment environment;
+		
+		@Override
+		public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+			this.beanFactory = (ListableBeanFactory) beanFactory;
+		}
+		
+		@Override
+		public void setEnvironment(Environment environment) {
+			this.environment = environment;
+		}
+		
+		@Override
+		public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+			return bean;
+		}
+		
+		@Override
+		public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+			if(bean instanceof FsSalixService) {
+				FsResourceCache cache = ((FsSalixService) bean).getResourceCache();
+				if(null != cache && beanFactory.getBeanNamesForType(MeterRegistry.class).length > 0) {
+					try {
+						MeterRegistry registry = beanFactory.getBean(MeterRegistry.class);
+						registry.gauge("salix.fs.resource.cache.size", cache, FsResourceCache::getSize);
+						registry.gauge("salix.fs.resource.cache.count", cache, FsResourceCache::getCount);
+						registry.gauge("salix.fs.resource.cache.hit.rate", cache, FsResourceCache::getHitRate);
+						registry.gauge("salix.fs.resource.cache.evictions", cache, FsResourceCache::getEvictions);
+					} catch (NoUniqueBeanDefinitionException e) {
+						logger.warn("Not gauging the resource cache as there is no primary MeterRegistry");
+					}
+				}
+				return bean;
+			}
+			if(!(bean instanceof FsClient) || bean instanceof InstrumentedFsClient)
+				return bean;
+			if(beanFactory.getBeanNamesForType(MeterRegistry.class).length == 0)
+				return bean;
+			try {
+				return new InstrumentedFsClient((FsClient) bean, beanFactory.getBean(MeterRegistry.class),
+						environment.getProperty("salix.fs.metrics.scope.tags", Boolean.class, false),
+						environment.getProperty("salix.fs.metrics.histograms", Boolean.class, false));
+			} catch (NoUniqueBeanDefinitionException e) {
+				logger.warn("Not instrumenting " + beanName + " as there is no primary MeterRegistry");
+				return bean;
+			}
+		}
+		
 	}
 	
 }
\ No newline at end of file
@@ -0,0 +1,30 @@
+package org.lukosan.salix.fs;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The {@link FsClient} operations without blocking the caller: each completes its future once the file-system has answered.
+ */
+public interface AsyncFsClient {
+
+	CompletableFuture<Boolean> putInputStream(InputStream in, String... paths);
+
+	CompletableFuture<InputStream> getInputStream(String... paths);
+
+	CompletableFuture<Integer> read(ByteBuffer dst, long position, String... paths);
+
+	CompletableFuture<List<String>> listFoldersInFolder(String... paths);
+
+	CompletableFuture<List<String>> listFilesInFolder(String... paths);
+
+	CompletableFuture<Boolean> exists(String... paths);
+
+	CompletableFuture<List<String>> listFilesInSubFolders(String... paths);
+
+	CompletableFuture<Long> lastModified(String... paths);
+
+	CompletableFuture<Long> length(String... paths);
+}
@@ -0,0 +1,188 @@
+package org.lukosan.salix.fs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * A {@link NixFsClient} that keeps each distinct resource once. Files put in the deduplicated folders are stored by
+ * their SHA-256 under the blob folder at the root, and the file at the requested path is a hard link to that blob, so
+ * identical resources in many scopes share one file and one place in the page cache while reading them is unchanged.
+ * Where hard links aren't supported the blob is copied instead. Blobs, and so the links to them, are read-only; a put
+ * replaces the link rather than writing through it.
+ * 
+ * Linking to a blob sets its time to now, so a path put again with content it had before still gets a newer time;
+ * other paths sharing that blob move forward with it, never back. Blobs no longer linked from any scope are removed
+ * by {@link #collectGarbage()}, every "salix.fs.dedup.gc.interval" milliseconds unless that's 0.
+ */
+public class DedupFsClient extends NixFsClient {
+
+	private static final Log logger = LogFactory.getLog(DedupFsClient.class);
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	@Value("${salix.fs.dedup.path:.blobs}")
+	private String blobPath = ".blobs";
+	// the service's own resource and variant folders unless given
+	@Value("${salix.fs.dedup.folders:${salix.fs.resource.path:resources},${salix.fs.resource.variant.path:.variants}}")
+	private String[] folders = { "resources", ".variants" };
+	@Value("${salix.fs.dedup.gc.interval:3600000}")
+	private long gcInterval = 3600000;
+
+	// puts hold it to share, the collector to delete, so a blob can't go between being found and being linked to
+	private final ReadWriteLock blobLock = new ReentrantReadWriteLock();
+	private ScheduledExecutorService collector;
+
+	public DedupFsClient() {
+		super();
+	}
+
+	public DedupFsClient(String rootPath) {
+		super(rootPath);
+	}
+
+	@PostConstruct
+	public void start() {
+		if(gcInterval <= 0)
+			return;
+		collector = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "salix-fs-dedup-gc");
+			thread.setDaemon(true);
+			return thread;
+		});
+		collector.scheduleWithFixedDelay(this::collectGarbage, gcInterval, gcInterval, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void stop() {
+		if(null != collector)
+			collector.shutdownNow();
+	}
+
+	@Override
+	public boolean putInputStream(InputStream in, String... paths) {
+		if(paths.length < 3 || !Arrays.asList(folders).contains(paths[1]))
+			return super.putInputStream(in, paths);
+		Path path = resolve(paths);
+		if(null == path) {
+			IOUtils.closeQuietly(in);
+			return false;
+		}
+		Path blobs = getRoot().resolve(blobPath);
+		Path temp = null;
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			temp = writeTemp(new DigestInputStream(in, digest), blobs, "blob");
+			String hash = hex(digest.digest());
+			Path blob = blobs.resolve(hash.substring(0, 2)).resolve(hash);
+			Files.createDirectories(path.getParent());
+			Path link = FsPaths.temp(path.getParent(), path.getFileName().toString());
+			blobLock.readLock().lock();
+			try {
+				if(Files.exists(blob)) {
+					deleteQuietly(temp);
+					// the old blob keeps the time it was first written, which may be older than what's at the path now
+					Files.setLastModifiedTime(blob, FileTime.fromMillis(System.currentTimeMillis()));
+				} else {
+					Files.createDirectories(blob.getParent());
+					move(temp, blob);
+					// every path linked to it shares the one inode, so writing through any of them would change them all
+					blob.toFile().setReadOnly();
+				}
+				temp = null;
+				try {
+					Files.createLink(link, blob);
+				} catch (UnsupportedOperationException | FileSystemException e) {
+					Files.copy(blob, link);
+				}
+			} finally {
+				blobLock.readLock().unlock();
+			}
+			move(link, path);
+			return true;
+		} catch (IOException | NoSuchAlgorithmException e) {
+			logger.error("Error writing " + path, e);
+			deleteQuietly(temp);
+			return false;
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * The blob folder isn't a scope.
+	 */
+	@Override
+	public List<String> listFoldersInFolder(String... paths) {
+		List<String> folders = super.listFoldersInFolder(paths);
+		if(!folders.contains(blobPath) || !getRoot().equals(resolve(paths)))
+			return folders;
+		folders = new ArrayList<String>(folders);
+		folders.remove(blobPath);
+		return folders;
+	}
+
+	/**
+	 * Deletes the blobs that only the blob folder links to. Puts wait while each prefix folder is swept.
+	 * 
+	 * @return the number deleted
+	 */
+	public int collectGarbage() {
+		int deleted = 0;
+		Path root = getRoot().resolve(blobPath);
+		if(!Files.isDirectory(root))
+			return 0;
+		try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(root)) {
+			for(Path prefix : prefixes) {
+				if(!Files.isDirectory(prefix))
+					continue;
+				blobLock.writeLock().lock();
+				try (DirectoryStream<Path> blobs = Files.newDirectoryStream(prefix)) {
+					for(Path blob : blobs) {
+						if(((Number) Files.getAttribute(blob, "unix:nlink")).intValue() <= 1) {
+							Files.deleteIfExists(blob);
+							deleted++;
+						}
+					}
+				} finally {
+					blobLock.writeLock().unlock();
+				}
+			}
+		} catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+			logger.error("Error collecting unused blobs", e);
+		}
+		return deleted;
+	}
+
+	private static String hex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for(int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,151 @@
+package org.lukosan.salix.fs;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Runs a blocking {@link FsClient} on its own executor so callers' threads aren't held while the disk answers.
+ * Uses a virtual thread per task where the JVM has them, otherwise a bounded pool of platform threads; when the
+ * pool's queue is full the returned future fails with a {@link RejectedExecutionException} rather than blocking.
+ */
+public class ExecutorAsyncFsClient implements AsyncFsClient {
+
+	private static final Log logger = LogFactory.getLog(ExecutorAsyncFsClient.class);
+
+	@Value("${salix.fs.async.virtual:true}")
+	private boolean virtual = true;
+	@Value("${salix.fs.async.threads:64}")
+	private int threads = 64;
+	@Value("${salix.fs.async.queue:1024}")
+	private int queue = 1024;
+
+	@Autowired
+	private FsClient client;
+
+	private ExecutorService executor;
+
+	public ExecutorAsyncFsClient() {
+		super();
+	}
+
+	public ExecutorAsyncFsClient(FsClient client, ExecutorService executor) {
+		this();
+		this.client = client;
+		this.executor = executor;
+	}
+
+	@PostConstruct
+	public void postConstruct() {
+		if(null == executor)
+			executor = virtual ? newVirtualThreadExecutor() : null;
+		if(null == executor)
+			executor = newBoundedExecutor(threads, queue);
+	}
+
+	@PreDestroy
+	public void preDestroy() {
+		executor.shutdown();
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Executors.newVirtualThreadPerTaskExecutor(), looked up reflectively as this module still builds for Java 8.
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			logger.info("Virtual threads are unavailable, using a bounded pool");
+			return null;
+		}
+	}
+
+	private static ExecutorService newBoundedExecutor(int threads, int queue) {
+		AtomicInteger count = new AtomicInteger();
+		ThreadFactory factory = r -> {
+			Thread thread = new Thread(r, "salix-fs-async-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queue), factory);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	private <T> CompletableFuture<T> submit(Supplier<T> supplier) {
+		try {
+			return CompletableFuture.supplyAsync(supplier, executor);
+		} catch (RejectedExecutionException e) {
+			CompletableFuture<T> future = new CompletableFuture<T>();
+			future.completeExceptionally(e);
+			return future;
+		}
+	}
+
+	@Override
+	public CompletableFuture<Boolean> putInputStream(InputStream in, String... paths) {
+		return submit(() -> client.putInputStream(in, paths));
+	}
+
+	@Override
+	public CompletableFuture<InputStream> getInputStream(String... paths) {
+		return submit(() -> client.getInputStream(paths));
+	}
+
+	@Override
+	public CompletableFuture<Integer> read(ByteBuffer dst, long position, String... paths) {
+		return submit(() -> client.read(dst, position, paths));
+	}
+
+	@Override
+	public CompletableFuture<List<String>> listFoldersInFolder(String... paths) {
+		return submit(() -> client.listFoldersInFolder(paths));
+	}
+
+	@Override
+	public CompletableFuture<List<String>> listFilesInFolder(String... paths) {
+		return submit(() -> client.listFilesInFolder(paths));
+	}
+
+	@Override
+	public CompletableFuture<Boolean> exists(String... paths) {
+		return submit(() -> client.exists(paths));
+	}
+
+	@Override
+	public CompletableFuture<List<String>> listFilesInSubFolders(String... paths) {
+		return submit(() -> client.listFilesInSubFolders(paths));
+	}
+
+	@Override
+	public CompletableFuture<Long> lastModified(String... paths) {
+		return submit(() -> client.lastModified(paths));
+	}
+
+	@Override
+	public CompletableFuture<Long> length(String... paths) {
+		return submit(() -> client.length(paths));
+	}
+}
@@ -0,0 +1,13 @@
+package org.lukosan.salix.fs;
+
+/**
+ * Notified of changes below the salix root. The arguments mirror the folder layout described on {@link FsSalixService}:
+ * a change to "/root/scopename/urls/about/index.yml" arrives as ("scopename", "urls", "about/index.yml").
+ * 
+ * folder is null when the scope folder itself changed, key is null when the folder itself changed, and all three
+ * are null when events were lost and anything may have changed.
+ */
+public interface FsChangeListener {
+
+	void changed(String scope, String folder, String key);
+}
@@ -0,0 +1,79 @@
+package org.lukosan.salix.fs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Copies between channels, using {@link FileChannel#transferTo} when it can and otherwise a pooled direct buffer.
+ */
+public final class FsChannels {
+
+	public static final int BUFFER_SIZE = 256 * 1024;
+	private static final int POOL_SIZE = 32;
+
+	private static final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	private FsChannels() {
+		super();
+	}
+
+	public static ByteBuffer acquire() {
+		ByteBuffer buffer = pool.poll();
+		if(null == buffer)
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		buffer.clear();
+		return buffer;
+	}
+
+	public static void release(ByteBuffer buffer) {
+		if(buffer.isDirect() && buffer.capacity() == BUFFER_SIZE && pool.size() < POOL_SIZE)
+			pool.offer(buffer);
+	}
+
+	/**
+	 * Sends count bytes of the file from position, handing the work to the kernel where the platform allows.
+	 */
+	public static long transfer(FileChannel in, long position, long count, WritableByteChannel out) throws IOException {
+		long done = 0;
+		while(done < count) {
+			long sent = in.transferTo(position + done, count - done, out);
+			if(sent <= 0) {
+				in.position(position + done);
+				return done + copy(in, out, count - done);
+			}
+			done += sent;
+		}
+		return done;
+	}
+
+	public static long copy(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+		return copy(in, out, Long.MAX_VALUE);
+	}
+
+	public static long copy(ReadableByteChannel in, WritableByteChannel out, long count) throws IOException {
+		ByteBuffer buffer = acquire();
+		try {
+			long done = 0;
+			while(done < count) {
+				if(count - done < buffer.capacity())
+					buffer.limit((int) (count - done));
+				int read = in.read(buffer);
+				if(read < 0)
+					break;
+				buffer.flip();
+				while(buffer.hasRemaining())
+					out.write(buffer);
+				buffer.clear();
+				done += read;
+			}
+			return done;
+		} finally {
+			release(buffer);
+		}
+	}
+}
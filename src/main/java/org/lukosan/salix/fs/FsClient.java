@@ -1,14 +1,69 @@
 package org.lukosan.salix.fs;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.PathMatcher;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.IOUtils;
 
 public interface FsClient {
 
-	void putInputStream(InputStream in, String... paths);
+	/**
+	 * Writes the stream to the file. True means the write was accepted: a client may queue it, as
+	 * {@link WriteBehindFsClient} does, so it needn't be on disk yet.
+	 */
+	boolean putInputStream(InputStream in, String... paths);
 
 	InputStream getInputStream(String... paths);
 
+	/**
+	 * The file as a channel, or null if there is no file; by default a channel over {@link #getInputStream(String...)}.
+	 */
+	default ReadableByteChannel getChannel(String... paths) {
+		InputStream in = getInputStream(paths);
+		return null == in ? null : Channels.newChannel(in);
+	}
+
+	/**
+	 * Reads into dst starting at position in the file, in the manner of {@link java.nio.channels.FileChannel#read(ByteBuffer, long)}.
+	 * 
+	 * By default the file is read from the start through {@link #getInputStream(String...)}.
+	 * 
+	 * @return the number of bytes read, or -1 when position is at or beyond the end of the file or there is no file
+	 */
+	default int read(ByteBuffer dst, long position, String... paths) {
+		try (InputStream in = getInputStream(paths)) {
+			if(null == in || IOUtils.skip(in, position) < position)
+				return -1;
+			byte[] bytes = new byte[dst.remaining()];
+			int read = IOUtils.read(in, bytes);
+			if(read == 0 && bytes.length > 0)
+				return -1;
+			dst.put(bytes, 0, read);
+			return read;
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * The whole file mapped read-only into memory, or null if there is no file or it can't be mapped. By default the
+	 * file is read onto the heap instead.
+	 */
+	default ByteBuffer map(String... paths) {
+		try (InputStream in = getInputStream(paths)) {
+			return null == in ? null : ByteBuffer.wrap(IOUtils.toByteArray(in)).asReadOnlyBuffer();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
 	List<String> listFoldersInFolder(String... paths);
 
 	List<String> listFilesInFolder(String... paths);
@@ -16,4 +71,64 @@ public interface FsClient {
 	boolean exists(String... paths);
 
 	List<String> listFilesInSubFolders(String... paths);
+
+	/**
+	 * As {@link #listFilesInSubFolders(String...)} but only the files at most maxDepth folders down (1 for the folder's
+	 * own files) whose names match the glob, which may be null for any.
+	 */
+	default List<String> listFilesInSubFolders(int maxDepth, String glob, String... paths) {
+		PathMatcher matcher = FsWalker.matcher(glob);
+		return listFilesInSubFolders(paths).stream().filter(key -> FsWalker.accepts(key, maxDepth, matcher)).collect(Collectors.toList());
+	}
+
+	/**
+	 * As {@link #listFilesInFolder(String...)} but read lazily; closing the stream releases the directory handle. By
+	 * default the whole listing is made first.
+	 */
+	default Stream<String> streamFilesInFolder(String... paths) {
+		return listFilesInFolder(paths).stream();
+	}
+
+	/**
+	 * As {@link #listFilesInSubFolders(String...)} but read lazily; closing the stream releases the directory handles.
+	 * By default the whole listing is made first.
+	 */
+	default Stream<String> streamFilesInSubFolders(String... paths) {
+		return listFilesInSubFolders(paths).stream();
+	}
+
+	/**
+	 * The file's last-modified time in milliseconds, or 0 if there's no file. A client that can't tell reports the
+	 * file as just changed every time, so nothing is kept on the strength of a time it doesn't have.
+	 */
+	default long lastModified(String... paths) {
+		return exists(paths) ? System.currentTimeMillis() : 0L;
+	}
+
+	/**
+	 * The file's length, or 0 if there's no file; by default counted by reading it.
+	 */
+	default long length(String... paths) {
+		try (InputStream in = getInputStream(paths)) {
+			return null == in ? 0L : IOUtils.skip(in, Long.MAX_VALUE);
+		} catch (IOException e) {
+			return 0L;
+		}
+	}
+
+	/**
+	 * Identifies the file's content, the same for every path that shares it, e.g. hard links to one file; null if
+	 * unknown or there's no file.
+	 */
+	default String contentKey(String... paths) {
+		return null;
+	}
+
+	/**
+	 * Whether a put to the path could succeed as far as can be told without making it, so a client that writes later
+	 * can turn away at once what would only fail then. True when unknown.
+	 */
+	default boolean isWritable(String... paths) {
+		return true;
+	}
 }
\ No newline at end of file
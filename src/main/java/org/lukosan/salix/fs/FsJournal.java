@@ -0,0 +1,202 @@
+package org.lukosan.salix.fs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An append-only record of the files written by every node sharing the salix root, one line per write:
+ * 
+ * sequence  node  scope  folder  key
+ * 
+ * tab-separated, the sequence being the record's offset in the file. Appends are made under a file lock. Each node
+ * tails the journal with positional reads from where it last stopped and passes other nodes' writes to the
+ * {@link FsWatcher}'s listeners, so caches hear of remote saves even where the file-system raises no events.
+ * 
+ * The first line names the journal's generation. Once the journal passes its maximum length the next writer starts it
+ * again with a new generation; readers finding a generation other than the one they were reading, or the file shorter
+ * than where they stopped, treat that as an overflow and drop everything, however far the new journal has grown. So
+ * do readers passing over a record too long for their buffer.
+ */
+public class FsJournal implements Closeable {
+
+	private static final Log logger = LogFactory.getLog(FsJournal.class);
+
+	private static final String GENERATION = "generation";
+
+	private final Path file;
+	private final FsWatcher watcher;
+	private final long maxLength;
+	private final String node = UUID.randomUUID().toString().substring(0, 8);
+	private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+	private final ScheduledExecutorService tailer;
+	private String generation;
+	private long position;
+
+	public FsJournal(Path file, FsWatcher watcher, long maxLength, long intervalMillis) {
+		this.file = file;
+		this.watcher = watcher;
+		this.maxLength = maxLength;
+		// only what's written from now on
+		if(file.toFile().isFile()) {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				this.position = channel.size();
+				this.generation = generation(channel);
+			} catch (IOException e) {
+				logger.error("Error reading " + file, e);
+			}
+		}
+		tailer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "salix-fs-journal");
+			thread.setDaemon(true);
+			return thread;
+		});
+		tailer.scheduleWithFixedDelay(this::tail, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public String getNode() {
+		return node;
+	}
+
+	/**
+	 * Records a write of the file; paths as given to {@link FsClient#putInputStream}.
+	 */
+	public synchronized void append(String... paths) {
+		List<String> names = new ArrayList<String>();
+		for(String path : paths)
+			if(null != path)
+				for(String name : path.split("/"))
+					if(!name.isEmpty())
+						names.add(name);
+		if(names.isEmpty())
+			return;
+		String scope = names.get(0);
+		String folder = names.size() > 1 ? names.get(1) : "";
+		String key = names.size() > 2 ? String.join("/", names.subList(2, names.size())) : "";
+		String fields = node + "\t" + scope + "\t" + folder + "\t" + key;
+		if(fields.indexOf('\n') >= 0 || names.stream().anyMatch(name -> name.indexOf('\t') >= 0)) {
+			logger.warn("Not journalling " + fields);
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			FileLock lock = channel.lock();
+			try {
+				long start = channel.size();
+				String header = "";
+				if(start == 0L || start > maxLength || null == generation(channel)) {
+					channel.truncate(0);
+					header = GENERATION + "\t" + UUID.randomUUID() + "\n";
+					start = 0L;
+				}
+				long sequence = start + header.getBytes(StandardCharsets.UTF_8).length;
+				ByteBuffer record = ByteBuffer.wrap((header + sequence + "\t" + fields + "\n").getBytes(StandardCharsets.UTF_8));
+				while(record.hasRemaining())
+					channel.write(record, start + record.position());
+			} finally {
+				lock.release();
+			}
+		} catch (IOException e) {
+			logger.error("Error journalling " + fields, e);
+		}
+	}
+
+	/**
+	 * Reads and passes on what's been appended since last time; run every interval.
+	 */
+	synchronized void tail() {
+		if(!file.toFile().isFile())
+			return;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			String current = generation(channel);
+			// being started again, or written by a node from before generations; looked at next time
+			if(null == current)
+				return;
+			if(!current.equals(generation) || size < position) {
+				if(null != generation)
+					watcher.fire(null, null, null);
+				generation = current;
+				position = 0;
+			}
+			while(position < size) {
+				buffer.clear();
+				if(channel.read(buffer, position) <= 0)
+					break;
+				int consumed = dispatch(buffer.array(), buffer.position());
+				if(consumed == 0) {
+					// the rest isn't written yet, unless it's a record too long for the buffer, which is passed over
+					long end = buffer.hasRemaining() ? -1L : next(channel, position + buffer.capacity());
+					if(end < 0)
+						break;
+					logger.warn("Skipping " + (end - position) + " byte record at " + position + " in " + file);
+					// whatever it named may have changed
+					watcher.fire(null, null, null);
+					position = end;
+				} else {
+					position += consumed;
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			logger.error("Error reading " + file, e);
+		}
+	}
+
+	// the generation named on the first line, or null if that line isn't there or isn't complete
+	private static String generation(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(GENERATION.length() + 64);
+		while(header.hasRemaining() && channel.read(header, header.position()) > 0)
+			;
+		String line = new String(header.array(), 0, header.position(), StandardCharsets.UTF_8);
+		int end = line.indexOf('\n');
+		if(end < 0 || !line.startsWith(GENERATION + "\t"))
+			return null;
+		return line.substring(GENERATION.length() + 1, end);
+	}
+
+	// the position just past the next line end from start, or -1 if there isn't one yet
+	private long next(FileChannel channel, long start) throws IOException {
+		for(long at = start; ; ) {
+			buffer.clear();
+			if(channel.read(buffer, at) <= 0)
+				return -1L;
+			for(int i = 0; i < buffer.position(); i++)
+				if(buffer.get(i) == '\n')
+					return at + i + 1;
+			at += buffer.position();
+		}
+	}
+
+	// fires the complete records, returning the bytes they took
+	private int dispatch(byte[] bytes, int length) {
+		int start = 0;
+		for(int i = 0; i < length; i++) {
+			if(bytes[i] != '\n')
+				continue;
+			String[] fields = new String(bytes, start, i - start, StandardCharsets.UTF_8).split("\t", -1);
+			start = i + 1;
+			if(fields.length != 5 || node.equals(fields[1]))
+				continue;
+			watcher.fire(fields[2], fields[3].isEmpty() ? null : fields[3], fields[4].isEmpty() ? null : fields[4]);
+		}
+		return start;
+	}
+
+	@Override
+	public void close() {
+		tailer.shutdownNow();
+	}
+}
@@ -0,0 +1,90 @@
+package org.lukosan.salix.fs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Read-only memory mappings of large files, shared by every reader of the same file until it is modified. The least
+ * recently used mapping is dropped once there are more than the maximum.
+ */
+class FsMappedFiles {
+
+	private static final Log logger = LogFactory.getLog(FsMappedFiles.class);
+
+	private final long threshold;
+	private final int maxFiles;
+	private final Map<Path, Mapping> mappings;
+
+	FsMappedFiles(long threshold, int maxFiles) {
+		this.threshold = threshold;
+		this.maxFiles = maxFiles;
+		this.mappings = new LinkedHashMap<Path, Mapping>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Path, Mapping> eldest) {
+				return size() > FsMappedFiles.this.maxFiles;
+			}
+		};
+	}
+
+	/**
+	 * The whole file mapped into memory, or null if it's missing or outside the size range worth mapping.
+	 * Callers must work on a duplicate.
+	 */
+	ByteBuffer get(Path file) {
+		BasicFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(file, BasicFileAttributes.class);
+		} catch (IOException e) {
+			remove(file);
+			return null;
+		}
+		if(!attrs.isRegularFile() || attrs.size() < threshold || attrs.size() > Integer.MAX_VALUE)
+			return null;
+		long lastModified = attrs.lastModifiedTime().toMillis();
+		Mapping mapping;
+		synchronized (mappings) {
+			mapping = mappings.get(file);
+		}
+		if(null != mapping && mapping.size == attrs.size() && mapping.lastModified == lastModified)
+			return mapping.buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			mapping = new Mapping(channel.map(FileChannel.MapMode.READ_ONLY, 0, attrs.size()), attrs.size(), lastModified);
+		} catch (IOException e) {
+			logger.error("Unable to map " + file, e);
+			return null;
+		}
+		synchronized (mappings) {
+			mappings.put(file, mapping);
+		}
+		return mapping.buffer;
+	}
+
+	void remove(Path file) {
+		synchronized (mappings) {
+			mappings.remove(file);
+		}
+	}
+
+	private static class Mapping {
+		private final ByteBuffer buffer;
+		private final long size;
+		private final long lastModified;
+
+		private Mapping(ByteBuffer buffer, long size, long lastModified) {
+			this.buffer = buffer;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package org.lukosan.salix.fs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers, for a while, the files that were looked for and not found, so repeated lookups of missing urls,
+ * templates and resources return straight away instead of going back to the file-system. Entries expire after the
+ * time-to-live, the oldest go first once the cache is full, and {@link FsWatcher} events and saves clear them early.
+ * Off unless salix.fs.negative.size is set; with salix.fs.watch.enabled false and no journal, only the time-to-live
+ * ends an entry for a file made outside this service.
+ */
+public class FsNegativeCache implements FsChangeListener {
+
+	private final int maxSize;
+	private final long ttlMillis;
+	private final Map<String, Long> entries;
+	private final AtomicLong hits = new AtomicLong();
+
+	public FsNegativeCache(final int maxSize, long ttlMillis) {
+		this.maxSize = maxSize;
+		this.ttlMillis = ttlMillis;
+		this.entries = new LinkedHashMap<String, Long>(16, 0.75f, false) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Whether the file was recently found to be missing.
+	 */
+	public boolean contains(String scope, String folder, String key) {
+		String k = key(scope, folder, key);
+		synchronized (entries) {
+			Long expires = entries.get(k);
+			if(null == expires)
+				return false;
+			if(expires < System.currentTimeMillis()) {
+				entries.remove(k);
+				return false;
+			}
+		}
+		hits.incrementAndGet();
+		return true;
+	}
+
+	public void add(String scope, String folder, String key) {
+		String k = key(scope, folder, key);
+		synchronized (entries) {
+			// re-insert so it's the newest
+			entries.remove(k);
+			entries.put(k, System.currentTimeMillis() + ttlMillis);
+		}
+	}
+
+	public void remove(String scope, String folder, String key) {
+		synchronized (entries) {
+			entries.remove(key(scope, folder, key));
+		}
+	}
+
+	@Override
+	public void changed(String scope, String folder, String key) {
+		synchronized (entries) {
+			if(null == scope) {
+				entries.clear();
+				return;
+			}
+			if(null != folder && null != key) {
+				entries.remove(key(scope, folder, key));
+				return;
+			}
+			String prefix = null == folder ? scope + "/" : key(scope, folder, "");
+			Iterator<String> iterator = entries.keySet().iterator();
+			while(iterator.hasNext())
+				if(iterator.next().startsWith(prefix))
+					iterator.remove();
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public int getCount() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	private static String key(String scope, String folder, String key) {
+		return scope + "/" + folder + "/" + FsUrlIndex.normalize(key);
+	}
+}
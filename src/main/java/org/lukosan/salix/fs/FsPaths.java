@@ -0,0 +1,118 @@
+package org.lukosan.salix.fs;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Resolves FsClient paths against the salix root, keeping the scope and folder prefixes already seen so a lookup only
+ * resolves its file name. Paths that would step outside the root resolve to null.
+ */
+class FsPaths {
+
+	private static final Log logger = LogFactory.getLog(FsPaths.class);
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private static final int MAX_SCOPES = 1024;
+	private static final int MAX_FOLDERS = 64;
+
+	private final Path root;
+	private final ConcurrentMap<String, ConcurrentMap<String, Path>> prefixes = new ConcurrentHashMap<String, ConcurrentMap<String, Path>>();
+
+	public FsPaths(String rootPath) {
+		this.root = Paths.get(rootPath).toAbsolutePath().normalize();
+	}
+
+	public Path getRoot() {
+		return root;
+	}
+
+	/**
+	 * An unused name for a file being written in the folder, hidden and left out of listings. Open it with
+	 * {@link java.nio.file.StandardOpenOption#CREATE_NEW} so it gets the umask's permissions; temp files from
+	 * {@link java.nio.file.Files#createTempFile} are owner-only and would stay so once renamed.
+	 */
+	static Path temp(Path folder, String name) {
+		return folder.resolve("." + name + "." + UUID.randomUUID() + TEMP_SUFFIX);
+	}
+
+	static boolean isTemp(String name) {
+		return name.startsWith(".") && name.endsWith(TEMP_SUFFIX);
+	}
+
+	/**
+	 * The path named by the segments, any of which may hold slashes, or null if it isn't inside the root.
+	 */
+	public Path resolve(String... paths) {
+		for(String path : paths) {
+			if(!isSafe(path)) {
+				logger.warn("Rejected path outside of " + root + ": " + FsSalixService.arrayToDelimitedString(paths, "/"));
+				return null;
+			}
+		}
+		if(paths.length < 2 || !isName(paths[0]) || !isName(paths[1]))
+			return resolve(root, paths, 0);
+		return resolve(prefix(paths[0], paths[1]), paths, 2);
+	}
+
+	private Path prefix(String scope, String folder) {
+		ConcurrentMap<String, Path> folders = prefixes.get(scope);
+		if(null == folders) {
+			if(prefixes.size() >= MAX_SCOPES)
+				return root.resolve(scope).resolve(folder);
+			folders = prefixes.computeIfAbsent(scope, s -> new ConcurrentHashMap<String, Path>());
+		}
+		Path prefix = folders.get(folder);
+		if(null == prefix) {
+			prefix = root.resolve(scope).resolve(folder);
+			if(folders.size() < MAX_FOLDERS)
+				folders.putIfAbsent(folder, prefix);
+		}
+		return prefix;
+	}
+
+	private static Path resolve(Path path, String[] paths, int from) {
+		for(int i = from; i < paths.length; i++) {
+			String segment = trim(paths[i]);
+			if(!segment.isEmpty())
+				path = path.resolve(segment);
+		}
+		return path;
+	}
+
+	private static String trim(String segment) {
+		if(null == segment)
+			return "";
+		int start = 0;
+		int end = segment.length();
+		while(start < end && segment.charAt(start) == '/')
+			start++;
+		while(end > start && segment.charAt(end - 1) == '/')
+			end--;
+		return start == 0 && end == segment.length() ? segment : segment.substring(start, end);
+	}
+
+	// a single, non-empty name with no slashes
+	private static boolean isName(String segment) {
+		return null != segment && !segment.isEmpty() && segment.indexOf('/') < 0 && !segment.equals(".");
+	}
+
+	private static boolean isSafe(String segment) {
+		if(null == segment)
+			return true;
+		if(segment.indexOf('\0') >= 0)
+			return false;
+		if(segment.indexOf("..") < 0)
+			return true;
+		for(String name : segment.split("/"))
+			if(name.equals(".."))
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,201 @@
+package org.lukosan.salix.fs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.lukosan.salix.SalixConfiguration;
+import org.lukosan.salix.SalixUrl;
+import org.yaml.snakeyaml.Yaml;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Reads url and configuration files, whichever of JSON and YAML each is written in. A ".json" file is JSON and a
+ * ".yml" or ".yaml" file is YAML unless, as when saved by {@link FsSalixService}, its content is a JSON object; other
+ * files go by their content. JSON is parsed straight off the token stream, the map included, with no data binding;
+ * YAML through a per-thread {@link Yaml} into plain maps, with no bean introspection.
+ * 
+ * All methods close the stream, and return null rather than throw.
+ */
+class FsReaders {
+
+	private static final Log logger = LogFactory.getLog(FsReaders.class);
+
+	private final JsonFactory factory;
+	private final ObjectReader templateReader;
+	private final ThreadLocal<Yaml> yaml = ThreadLocal.withInitial(Yaml::new);
+
+	FsReaders(ObjectMapper mapper) {
+		this.factory = mapper.getFactory();
+		this.templateReader = mapper.readerFor(FsSalixTemplate.class);
+	}
+
+	/**
+	 * @param name the file name, or just its suffix
+	 */
+	public SalixUrl readUrl(InputStream in, String name) {
+		Map<String, Object> fields = read(in, name);
+		if(null == fields)
+			return null;
+		FsSalixUrl url = new FsSalixUrl();
+		url.setScope(string(fields.get("scope")));
+		url.setUrl(string(fields.get("url")));
+		url.setView(string(fields.get("view")));
+		Object status = fields.get("status");
+		if(status instanceof Number)
+			url.setStatus(((Number) status).intValue());
+		else if(null != status) {
+			try {
+				url.setStatus(Integer.parseInt(status.toString().trim()));
+			} catch (NumberFormatException e) {
+				logger.error("Problem reading " + name + ", status " + status + " isn't a number");
+				return null;
+			}
+		}
+		url.setMap(map(fields.get("map")));
+		return url;
+	}
+
+	/**
+	 * @param name the file name, or just its suffix
+	 */
+	public SalixConfiguration readConfiguration(InputStream in, String name) {
+		Map<String, Object> fields = read(in, name);
+		if(null == fields)
+			return null;
+		return new FsSalixConfiguration(string(fields.get("scope")), string(fields.get("target")), map(fields.get("map")));
+	}
+
+	public FsSalixTemplate readTemplate(InputStream in) {
+		if(null == in)
+			return null;
+		try {
+			return templateReader.readValue(in);
+		} catch (IOException e) {
+			logger.error("Problem reading SalixTemplate", e);
+			return null;
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> read(InputStream in, String name) {
+		if(null == in)
+			return null;
+		try {
+			byte[] bytes = toByteArray(in);
+			if(isJson(name, bytes)) {
+				try {
+					return readJson(bytes);
+				} catch (JsonProcessingException e) {
+					// a YAML flow mapping starts with a brace too
+					if(name.endsWith(".json"))
+						throw e;
+				}
+			}
+			Object loaded = yaml.get().load(new String(bytes, "UTF-8"));
+			return loaded instanceof Map ? (Map<String, Object>) loaded : null;
+		} catch (Exception e) {
+			logger.error("Problem reading " + name, e);
+			return null;
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	// sized from available(), which for a file is its length, so the usual read is one exact allocation
+	private static byte[] toByteArray(InputStream in) throws IOException {
+		byte[] bytes = new byte[Math.max(in.available() + 1, 256)];
+		int length = 0;
+		int read;
+		while((read = in.read(bytes, length, bytes.length - length)) >= 0) {
+			length += read;
+			if(length == bytes.length)
+				bytes = Arrays.copyOf(bytes, bytes.length * 2);
+		}
+		return length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
+	}
+
+	static boolean isJson(String name, byte[] bytes) {
+		if(name.endsWith(".json"))
+			return true;
+		for(byte b : bytes) {
+			if(b == '{')
+				return true;
+			// a byte order mark or white space
+			if(b != ' ' && b != '\t' && b != '\r' && b != '\n' && b != (byte) 0xef && b != (byte) 0xbb && b != (byte) 0xbf)
+				return false;
+		}
+		return false;
+	}
+
+	private Map<String, Object> readJson(byte[] bytes) throws IOException {
+		try (JsonParser parser = factory.createParser(bytes)) {
+			if(parser.nextToken() != JsonToken.START_OBJECT)
+				throw new JsonProcessingException("Expected a JSON object", parser.getCurrentLocation()) {
+					private static final long serialVersionUID = 1L;
+				};
+			return readObject(parser);
+		}
+	}
+
+	private Map<String, Object> readObject(JsonParser parser) throws IOException {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		while(parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			parser.nextToken();
+			map.put(field, readValue(parser));
+		}
+		return map;
+	}
+
+	private Object readValue(JsonParser parser) throws IOException {
+		switch(parser.getCurrentToken()) {
+		case START_OBJECT:
+			return readObject(parser);
+		case START_ARRAY:
+			List<Object> list = new ArrayList<Object>();
+			while(parser.nextToken() != JsonToken.END_ARRAY)
+				list.add(readValue(parser));
+			return list;
+		case VALUE_STRING:
+			return parser.getText();
+		case VALUE_NUMBER_INT:
+			return parser.getNumberValue();
+		case VALUE_NUMBER_FLOAT:
+			return parser.getDoubleValue();
+		case VALUE_TRUE:
+			return Boolean.TRUE;
+		case VALUE_FALSE:
+			return Boolean.FALSE;
+		case VALUE_NULL:
+			return null;
+		default:
+			return parser.getEmbeddedObject();
+		}
+	}
+
+	private static String string(Object value) {
+		return null == value ? null : value.toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> map(Object value) {
+		return value instanceof Map ? (Map<String, Object>) value : new HashMap<String, Object>();
+	}
+}
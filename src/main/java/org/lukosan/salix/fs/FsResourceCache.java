@@ -0,0 +1,284 @@
+package org.lukosan.salix.fs;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Least-recently-used cache of small resources' bytes, held in direct buffers outside the heap and bounded by their
+ * total size. Along with the bytes it keeps the resource's ETag and gzipped bytes when {@link FsResourceVariants} are
+ * in use. An entry is trusted without touching the file-system for the revalidation interval, after which its
+ * last-modified time is checked again; {@link FsWatcher} events drop entries straight away. Paths with the same
+ * {@link FsClient#contentKey(String...) content key} share their bytes, though each entry is still counted in full.
+ * Off unless salix.fs.resource.cache.size is set.
+ */
+public class FsResourceCache implements FsChangeListener {
+
+	private static final Log logger = LogFactory.getLog(FsResourceCache.class);
+
+	// what an entry costs besides its bytes, and all that's held for a resource too large to cache
+	private static final int OVERHEAD = 128;
+
+	private final FsClient client;
+	private final FsResourceVariants variants;
+	private final long maxSize;
+	private final long maxLength;
+	private final long revalidateMillis;
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final Map<String, Reference<ByteBuffer>> shared = new HashMap<String, Reference<ByteBuffer>>();
+	private long size;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param variants may be null
+	 */
+	public FsResourceCache(FsClient client, FsResourceVariants variants, long maxSize, long maxLength, long revalidateMillis) {
+		this.client = client;
+		this.variants = variants;
+		this.maxSize = maxSize;
+		this.maxLength = maxLength;
+		this.revalidateMillis = revalidateMillis;
+	}
+
+	/**
+	 * The cached resource, loading it if it's small enough; null if it doesn't exist. Resources too large to cache
+	 * come back as an entry with no bytes.
+	 */
+	public Entry get(String scope, String path, String sourceId) {
+		String key = key(scope, path, sourceId);
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+		}
+		long now = System.currentTimeMillis();
+		if(null != entry) {
+			if(now - entry.checked < revalidateMillis || client.lastModified(scope, path, sourceId) == entry.lastModified) {
+				entry.checked = now;
+				if(entry.isCached())
+					hits.incrementAndGet();
+				return entry;
+			}
+			remove(key);
+		}
+		entry = load(scope, path, sourceId, now);
+		if(null != entry) {
+			if(entry.isCached())
+				misses.incrementAndGet();
+			put(key, entry);
+		}
+		return entry;
+	}
+
+	private Entry load(String scope, String path, String sourceId, long now) {
+		long lastModified = client.lastModified(scope, path, sourceId);
+		if(lastModified == 0L)
+			return null;
+		long length = client.length(scope, path, sourceId);
+		if(length > maxLength)
+			return new Entry(null, null, null, lastModified, now);
+		FsResourceVariants.Version version = null == variants ? null : variants.current(scope, path, sourceId);
+		ByteBuffer bytes = read(client.contentKey(scope, path, sourceId), () -> client.getChannel(scope, path, sourceId), length);
+		if(null == bytes)
+			return null;
+		ByteBuffer gzip = null;
+		if(null != version && version.isGzipped())
+			gzip = read(variants.getGzipContentKey(scope, sourceId), () -> variants.getGzipChannel(scope, sourceId),
+					variants.getGzipLength(scope, sourceId));
+		return new Entry(bytes, gzip, null == version ? null : version.getETag(), lastModified, now);
+	}
+
+	// bytes already held for the same content, e.g. another scope's link to the same file, are shared not read again
+	private ByteBuffer read(String contentKey, Supplier<ReadableByteChannel> channel, long length) {
+		if(null == contentKey)
+			return read(channel.get(), length);
+		synchronized (shared) {
+			Reference<ByteBuffer> reference = shared.get(contentKey);
+			ByteBuffer bytes = null == reference ? null : reference.get();
+			if(null != bytes)
+				return bytes;
+		}
+		ByteBuffer bytes = read(channel.get(), length);
+		if(null != bytes) {
+			synchronized (shared) {
+				if(shared.size() >= entries.size() * 2 + 16)
+					shared.values().removeIf(reference -> null == reference.get());
+				shared.put(contentKey, new WeakReference<ByteBuffer>(bytes));
+			}
+		}
+		return bytes;
+	}
+
+	private ByteBuffer read(ReadableByteChannel in, long length) {
+		if(null == in)
+			return null;
+		try {
+			ByteBuffer buffer = ByteBuffer.allocateDirect((int) length);
+			while(buffer.hasRemaining() && in.read(buffer) >= 0)
+				;
+			buffer.flip();
+			// a file that shrank since its length was taken would otherwise be weighed at the larger size
+			if(buffer.limit() < buffer.capacity()) {
+				buffer = ByteBuffer.allocateDirect(buffer.limit()).put(buffer);
+				buffer.flip();
+			}
+			return buffer.asReadOnlyBuffer();
+		} catch (IOException e) {
+			logger.error(e);
+			return null;
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				logger.error(e);
+			}
+		}
+	}
+
+	/**
+	 * Whether a resource's entry is held and still within its revalidation interval, without loading anything or
+	 * touching the file-system.
+	 */
+	public boolean contains(String scope, String path, String sourceId) {
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(key(scope, path, sourceId));
+		}
+		return null != entry && System.currentTimeMillis() - entry.checked < revalidateMillis;
+	}
+
+	private void put(String key, Entry entry) {
+		synchronized (entries) {
+			Entry previous = entries.put(key, entry);
+			if(null != previous)
+				size -= previous.weight();
+			size += entry.weight();
+			Iterator<Entry> eldest = entries.values().iterator();
+			while(size > maxSize && eldest.hasNext()) {
+				size -= eldest.next().weight();
+				eldest.remove();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	private void remove(String key) {
+		synchronized (entries) {
+			Entry previous = entries.remove(key);
+			if(null != previous)
+				size -= previous.weight();
+		}
+	}
+
+	private void removeAll(String prefix) {
+		synchronized (entries) {
+			Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+			while(iterator.hasNext()) {
+				Map.Entry<String, Entry> entry = iterator.next();
+				if(null == prefix || entry.getKey().startsWith(prefix)) {
+					size -= entry.getValue().weight();
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	@Override
+	public void changed(String scope, String folder, String key) {
+		if(null == scope)
+			removeAll(null);
+		else if(null == folder || null == key)
+			removeAll(null == folder ? scope + "/" : key(scope, folder, ""));
+		else
+			remove(key(scope, folder, key));
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	public long getSize() {
+		synchronized (entries) {
+			return size;
+		}
+	}
+
+	public int getCount() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public double getHitRate() {
+		long total = hits.get() + misses.get();
+		return total == 0 ? 0d : (double) hits.get() / total;
+	}
+
+	private static String key(String scope, String path, String sourceId) {
+		return scope + "/" + path + "/" + sourceId;
+	}
+
+	public static class Entry {
+		private final ByteBuffer bytes;
+		private final ByteBuffer gzip;
+		private final String etag;
+		private final long lastModified;
+		private volatile long checked;
+
+		private Entry(ByteBuffer bytes, ByteBuffer gzip, String etag, long lastModified, long checked) {
+			this.bytes = bytes;
+			this.gzip = gzip;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.checked = checked;
+		}
+
+		/**
+		 * False when the resource was too large to cache and must be read from the file-system.
+		 */
+		public boolean isCached() {
+			return null != bytes;
+		}
+
+		public ByteBuffer getBytes() {
+			return bytes.duplicate();
+		}
+
+		public ByteBuffer getGzipBytes() {
+			return null == gzip ? null : gzip.duplicate();
+		}
+
+		public String getETag() {
+			return etag;
+		}
+
+		private long weight() {
+			return OVERHEAD + (null == bytes ? 0 : bytes.capacity()) + (null == gzip ? 0 : gzip.capacity());
+		}
+	}
+}
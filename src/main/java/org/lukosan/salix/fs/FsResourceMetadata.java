@@ -0,0 +1,157 @@
+package org.lukosan.salix.fs;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * What's known about a resource besides its bytes, the content type and length given when it was saved, kept in a
+ * small JSON file per resource under the scope's metadata folder. Parsed metadata, or the lack of any, is held and
+ * trusted without touching the file-system for the revalidation interval, after which the file's time is checked
+ * again; saves through here replace it at once and, when it's running for something else, {@link FsWatcher} events
+ * drop it.
+ */
+public class FsResourceMetadata implements FsChangeListener {
+
+	private static final Log logger = LogFactory.getLog(FsResourceMetadata.class);
+
+	private static final String CONTENT_TYPE = "contentType";
+	private static final String LENGTH = "length";
+	private static final int MAX_ENTRIES = 4096;
+
+	private final FsClient client;
+	private final ObjectMapper mapper;
+	private final String metadataPath;
+	private final long revalidateMillis;
+	private final Map<String, Metadata> entries = new LinkedHashMap<String, Metadata>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Metadata> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	public FsResourceMetadata(FsClient client, ObjectMapper mapper, String metadataPath, long revalidateMillis) {
+		this.client = client;
+		this.mapper = mapper;
+		this.metadataPath = metadataPath;
+		this.revalidateMillis = revalidateMillis;
+	}
+
+	/**
+	 * @param contentType null when it isn't known
+	 */
+	public boolean put(String scope, String sourceId, String contentType, long length) {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put(CONTENT_TYPE, contentType);
+		map.put(LENGTH, length);
+		String key = scope + "/" + sourceId;
+		boolean written;
+		try {
+			written = client.putInputStream(new ByteArrayInputStream(mapper.writeValueAsBytes(map)), scope, metadataPath, sourceId + ".json");
+		} catch (IOException e) {
+			logger.error(e);
+			written = false;
+		}
+		synchronized (entries) {
+			if(written)
+				entries.put(key, new Metadata(contentType, length, client.lastModified(scope, metadataPath, sourceId + ".json")));
+			else
+				entries.remove(key);
+		}
+		return written;
+	}
+
+	/**
+	 * The resource's metadata, or null if none was stored.
+	 */
+	public Metadata get(String scope, String sourceId) {
+		String key = scope + "/" + sourceId;
+		long now = System.currentTimeMillis();
+		Metadata metadata;
+		synchronized (entries) {
+			metadata = entries.get(key);
+		}
+		if(null != metadata && now - metadata.checked < revalidateMillis)
+			return metadata.isAbsent() ? null : metadata;
+		long lastModified = client.lastModified(scope, metadataPath, sourceId + ".json");
+		if(null != metadata && metadata.lastModified == lastModified) {
+			metadata.checked = now;
+			return metadata.isAbsent() ? null : metadata;
+		}
+		// held for resources without metadata too, so they don't cost a stat each time either
+		metadata = lastModified == 0L ? new Metadata(null, -1L, 0L) : read(scope, sourceId, lastModified);
+		if(null != metadata) {
+			synchronized (entries) {
+				entries.put(key, metadata);
+			}
+		}
+		return null == metadata || metadata.isAbsent() ? null : metadata;
+	}
+
+	@Override
+	public void changed(String scope, String folder, String key) {
+		synchronized (entries) {
+			if(null == scope)
+				entries.clear();
+			else if(null == folder || null == key)
+				entries.keySet().removeIf(k -> k.startsWith(scope + "/"));
+			else if(metadataPath.equals(folder) && key.endsWith(".json"))
+				entries.remove(scope + "/" + key.substring(0, key.length() - ".json".length()));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Metadata read(String scope, String sourceId, long lastModified) {
+		InputStream in = client.getInputStream(scope, metadataPath, sourceId + ".json");
+		if(null == in)
+			return null;
+		try {
+			Map<String, Object> map = mapper.readValue(in, Map.class);
+			Object length = map.get(LENGTH);
+			return new Metadata((String) map.get(CONTENT_TYPE), length instanceof Number ? ((Number) length).longValue() : -1L, lastModified);
+		} catch (IOException e) {
+			logger.error("Problem reading metadata for " + scope + "/" + sourceId, e);
+			return null;
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	public static class Metadata {
+		private final String contentType;
+		private final long length;
+		private final long lastModified;
+		private volatile long checked = System.currentTimeMillis();
+
+		private Metadata(String contentType, long length, long lastModified) {
+			this.contentType = contentType;
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		/**
+		 * The length saved, or -1 if it wasn't recorded.
+		 */
+		public long getLength() {
+			return length;
+		}
+
+		// there being no metadata file
+		private boolean isAbsent() {
+			return lastModified == 0L;
+		}
+	}
+}
@@ -0,0 +1,307 @@
+package org.lukosan.salix.fs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Remembers a strong ETag (a SHA-256 of the content) and the length of each resource, and keeps a gzipped copy of
+ * compressible resources in the scope's variant folder, e.g. "scopename/.variants/site.css.gz". Both are worked out
+ * again whenever the resource's file, last-modified time or length changes, in any direction.
+ * 
+ * The gzipped copy carries the ETag of the content it was made from in its header comment, and is only served for
+ * that ETag, so a resource replaced by one with an older time never gets the old copy. It's served with an ETag of
+ * its own, {@link #gzipETag(String)}, as a different representation. Resources over the hashing limit get a weak ETag
+ * from their length and time instead, so a first request never waits on hashing gigabytes.
+ */
+public class FsResourceVariants {
+
+	private static final Log logger = LogFactory.getLog(FsResourceVariants.class);
+
+	public static final String GZIP = "gzip";
+
+	// the gzip header flag saying a zero-terminated comment follows the fixed ten bytes
+	private static final byte FCOMMENT = 0x10;
+
+	private final FsClient client;
+	private final String variantPath;
+	private final String[] gzipSuffixes;
+	private final long gzipMaxLength;
+	private final long hashMaxLength;
+	private final Map<String, Version> versions = new ConcurrentHashMap<String, Version>();
+
+	public FsResourceVariants(FsClient client, String variantPath, String[] gzipSuffixes, long gzipMaxLength, long hashMaxLength) {
+		this.client = client;
+		this.variantPath = variantPath;
+		this.gzipSuffixes = gzipSuffixes;
+		this.gzipMaxLength = gzipMaxLength;
+		this.hashMaxLength = hashMaxLength;
+	}
+
+	/**
+	 * The current version of the resource, or null if it doesn't exist.
+	 */
+	public Version current(String scope, String path, String sourceId) {
+		long lastModified = client.lastModified(scope, path, sourceId);
+		String key = scope + "/" + path + "/" + sourceId;
+		if(lastModified == 0L) {
+			versions.remove(key);
+			return null;
+		}
+		long length = client.length(scope, path, sourceId);
+		// the file's identity too where the client knows it, so a same-sized replacement with the same time is noticed
+		String contentKey = client.contentKey(scope, path, sourceId);
+		Version version = versions.get(key);
+		if(null != version && version.lastModified == lastModified && version.length == length && Objects.equals(version.contentKey, contentKey))
+			return version;
+		version = read(scope, path, sourceId, lastModified, length, contentKey);
+		if(null != version)
+			versions.put(key, version);
+		return version;
+	}
+
+	public ReadableByteChannel getGzipChannel(String scope, String sourceId) {
+		return client.getChannel(scope, variantPath, sourceId + ".gz");
+	}
+
+	public long getGzipLength(String scope, String sourceId) {
+		return client.length(scope, variantPath, sourceId + ".gz");
+	}
+
+	public String getGzipContentKey(String scope, String sourceId) {
+		return client.contentKey(scope, variantPath, sourceId + ".gz");
+	}
+
+	private Version read(String scope, String path, String sourceId, long lastModified, long length, String contentKey) {
+		boolean hash = length <= hashMaxLength;
+		boolean compress = length <= gzipMaxLength && compressible(sourceId);
+		String weak = hash ? null : "W/\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+		String stored = compress ? storedETag(scope, sourceId) : null;
+		// a gzipped copy that may already be current isn't made again until the hash says it isn't
+		boolean deflate = compress && (null == stored || !hash && !stored.equals(weak));
+		Pass pass = null;
+		if(hash || deflate) {
+			pass = pass(scope, path, sourceId, hash, deflate);
+			if(null == pass)
+				return null;
+		}
+		String etag = hash ? pass.etag : weak;
+		boolean gzipped = false;
+		if(compress) {
+			if(etag.equals(stored)) {
+				gzipped = true;
+			} else {
+				if(null == pass || null == pass.deflated) {
+					pass = pass(scope, path, sourceId, hash, true);
+					if(null == pass)
+						return null;
+					etag = hash ? pass.etag : weak;
+				}
+				gzipped = gzip(scope, sourceId, etag, pass);
+			}
+		}
+		return new Version(etag, lastModified, length, contentKey, gzipped);
+	}
+
+	/**
+	 * Reads the resource once, hashing and deflating the same bytes so the ETag and the gzipped copy can't be of
+	 * different content, even if the file is replaced meanwhile.
+	 */
+	private Pass pass(String scope, String path, String sourceId, boolean hash, boolean deflate) {
+		ReadableByteChannel in = client.getChannel(scope, path, sourceId);
+		if(null == in)
+			return null;
+		Deflater deflater = deflate ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : null;
+		try {
+			MessageDigest digest = hash ? MessageDigest.getInstance("SHA-256") : null;
+			CRC32 crc = new CRC32();
+			ByteArrayOutputStream deflated = deflate ? new ByteArrayOutputStream() : null;
+			DeflaterOutputStream out = deflate ? new DeflaterOutputStream(deflated, deflater, 8192) : null;
+			long count = 0;
+			ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+			for(int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+				if(null != digest)
+					digest.update(buffer.array(), 0, read);
+				if(null != out) {
+					crc.update(buffer.array(), 0, read);
+					out.write(buffer.array(), 0, read);
+				}
+				count += read;
+				buffer.clear();
+			}
+			if(null != out)
+				out.finish();
+			String etag = null == digest ? null : "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest()) + "\"";
+			return new Pass(etag, deflated, crc.getValue(), count);
+		} catch (IOException | NoSuchAlgorithmException e) {
+			logger.error("Problem reading " + scope + "/" + path + "/" + sourceId, e);
+			return null;
+		} finally {
+			if(null != deflater)
+				deflater.end();
+			close(in);
+		}
+	}
+
+	/**
+	 * Writes the gzipped copy, with the ETag as its header comment, if it's worth keeping.
+	 */
+	private boolean gzip(String scope, String sourceId, String etag, Pass pass) {
+		try {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(pass.deflated.size() + 128);
+			// GZIPOutputStream can't write a comment, so the header and trailer are written here round a raw deflate
+			compressed.write(new byte[] { 0x1f, (byte) 0x8b, Deflater.DEFLATED, FCOMMENT, 0, 0, 0, 0, 0, (byte) 0xff });
+			compressed.write(etag.getBytes(StandardCharsets.ISO_8859_1));
+			compressed.write(0);
+			pass.deflated.writeTo(compressed);
+			writeInt(compressed, (int) pass.crc);
+			// the length actually read, not what the file was said to be
+			writeInt(compressed, (int) pass.count);
+			// only worth keeping if it saves something
+			return compressed.size() < pass.count * 0.9
+					&& client.putInputStream(new ByteArrayInputStream(compressed.toByteArray()), scope, variantPath, sourceId + ".gz");
+		} catch (IOException e) {
+			logger.error("Problem compressing " + scope + "/" + sourceId, e);
+			return false;
+		}
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int value) {
+		for(int i = 0; i < 4; i++)
+			out.write(value >>> (i * 8));
+	}
+
+	/**
+	 * The ETag in the header comment of the resource's gzipped copy, or null if there's no copy or it has none.
+	 */
+	private String storedETag(String scope, String sourceId) {
+		ReadableByteChannel in = client.getChannel(scope, variantPath, sourceId + ".gz");
+		if(null == in)
+			return null;
+		try {
+			ByteBuffer header = ByteBuffer.allocate(128);
+			while(header.hasRemaining() && in.read(header) >= 0)
+				;
+			header.flip();
+			if(header.remaining() < 10 || header.get(0) != 0x1f || header.get(1) != (byte) 0x8b || header.get(3) != FCOMMENT)
+				return null;
+			for(int end = 10; end < header.limit(); end++)
+				if(header.get(end) == 0)
+					return new String(header.array(), 10, end - 10, StandardCharsets.ISO_8859_1);
+			return null;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			close(in);
+		}
+	}
+
+	private void close(ReadableByteChannel in) {
+		try {
+			in.close();
+		} catch (IOException e) {
+			logger.error(e);
+		}
+	}
+
+	private boolean compressible(String sourceId) {
+		for(String suffix : gzipSuffixes)
+			if(sourceId.endsWith("." + suffix.trim()))
+				return true;
+		return false;
+	}
+
+	public static class Version {
+		private final String etag;
+		private final long lastModified;
+		private final long length;
+		private final String contentKey;
+		private final boolean gzipped;
+
+		private Version(String etag, long lastModified, long length, String contentKey, boolean gzipped) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.length = length;
+			this.contentKey = contentKey;
+			this.gzipped = gzipped;
+		}
+
+		public String getETag() {
+			return etag;
+		}
+
+		/**
+		 * The ETag of the gzipped copy, which as a different representation of the content has one of its own.
+		 */
+		public String getGzipETag() {
+			return FsResourceVariants.gzipETag(etag);
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		public long getLength() {
+			return length;
+		}
+
+		public boolean isGzipped() {
+			return gzipped;
+		}
+
+		/**
+		 * Whether an If-None-Match header value names this version.
+		 */
+		public boolean matches(String ifNoneMatch) {
+			return FsResourceVariants.matches(ifNoneMatch, etag);
+		}
+	}
+
+	private static class Pass {
+		private final String etag;
+		private final ByteArrayOutputStream deflated;
+		private final long crc;
+		private final long count;
+
+		private Pass(String etag, ByteArrayOutputStream deflated, long crc, long count) {
+			this.etag = etag;
+			this.deflated = deflated;
+			this.crc = crc;
+			this.count = count;
+		}
+	}
+
+	/**
+	 * The ETag of the gzipped representation of content with the given ETag, e.g. "abc" becomes "abc-gzip".
+	 */
+	public static String gzipETag(String etag) {
+		return null == etag ? null : etag.substring(0, etag.length() - 1) + "-" + GZIP + "\"";
+	}
+
+	/**
+	 * Whether an If-None-Match header value names the given ETag.
+	 */
+	public static boolean matches(String ifNoneMatch, String etag) {
+		if(null == ifNoneMatch || null == etag)
+			return false;
+		for(String tag : ifNoneMatch.split(","))
+			if(tag.trim().equals("*") || tag.trim().equals(etag))
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,56 @@
+package org.lukosan.salix.fs;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+import org.lukosan.salix.ResourceWriter;
+
+/**
+ * A {@link ResourceWriter} that can offer more than an {@link java.io.OutputStream}, letting an
+ * {@link FsSalixResource} take faster paths when writing itself.
+ */
+public interface FsResourceWriter extends ResourceWriter {
+
+	/**
+	 * A channel onto the same destination as {@link #getOutputStream()}, e.g. a socket, which lets file-backed
+	 * resources be sent without copying them through user space; or null when there isn't one.
+	 */
+	default WritableByteChannel getChannel() throws IOException {
+		return null;
+	}
+
+	/**
+	 * The request's If-None-Match header, if any.
+	 */
+	default String getIfNoneMatch() {
+		return null;
+	}
+
+	/**
+	 * Whether the request's Accept-Encoding allows the given content coding, e.g. "gzip".
+	 */
+	default boolean acceptsEncoding(String encoding) {
+		return false;
+	}
+
+	default void setETag(String etag) {
+	}
+
+	default void setContentEncoding(String encoding) {
+	}
+
+	default void setContentLength(long length) {
+	}
+
+	/**
+	 * Names a request header the response depends on, e.g. "Accept-Encoding" when a gzipped copy may be served.
+	 */
+	default void setVary(String header) {
+	}
+
+	/**
+	 * Called instead of writing anything when the requester's copy is current, i.e. a 304 Not Modified response.
+	 */
+	default void notModified() {
+	}
+}
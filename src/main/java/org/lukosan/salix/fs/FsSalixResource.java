@@ -1,9 +1,13 @@
 package org.lukosan.salix.fs;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
-import org.apache.commons.io.IOUtils;
 import org.lukosan.salix.ResourceWriter;
 import org.lukosan.salix.SalixResource;
 import org.lukosan.salix.SalixResourceType;
@@ -12,10 +16,17 @@ public class FsSalixResource implements SalixResource {
 
 	private static final long serialVersionUID = 1L;
 
+	// the response depends on the request's Accept-Encoding wherever there's a gzipped copy
+	private static final String VARY = "Accept-Encoding";
+
 	private String scope;
 	private String sourceId;
 	private String path;
 	private FsClient client;
+	private FsResourceVariants variants;
+	private FsResourceCache cache;
+	private FsNegativeCache negatives;
+	private FsResourceMetadata metadata;
 
 	public FsSalixResource() {
 		super();
@@ -29,6 +40,21 @@ public class FsSalixResource implements SalixResource {
 		this.path = path;
 	}
 	
+	/**
+	 * @param variants may be null
+	 * @param cache may be null
+	 * @param negatives may be null
+	 * @param metadata may be null
+	 */
+	public FsSalixResource(String scope, String path, String sourceId, FsClient client, FsResourceVariants variants, FsResourceCache cache,
+			FsNegativeCache negatives, FsResourceMetadata metadata) {
+		this(scope, path, sourceId, client);
+		this.variants = variants;
+		this.cache = cache;
+		this.negatives = negatives;
+		this.metadata = metadata;
+	}
+	
 	public String getScope() {
 		return scope;
 	}
@@ -62,22 +88,172 @@ public class FsSalixResource implements SalixResource {
 		return SalixResourceType.BINARY;
 	}
 
+	/**
+	 * The content type given when the resource was saved, or null if none was.
+	 */
 	public String getContentType() {
-		return null;
+		FsResourceMetadata.Metadata stored = null == metadata ? null : metadata.get(scope, sourceId);
+		return null == stored ? null : stored.getContentType();
 	}
 
 	@Override
 	public void writeTo(ResourceWriter writer) throws IOException {
-		InputStream stream = client.getInputStream(scope, path, sourceId);
+		FsResourceCache.Entry entry = null == cache ? null : cache.get(scope, path, sourceId);
+		if(null != entry && entry.isCached()) {
+			write(entry, writer);
+			return;
+		}
+		if(null != variants && writer instanceof FsResourceWriter) {
+			FsResourceWriter fsWriter = (FsResourceWriter) writer;
+			FsResourceVariants.Version version = variants.current(scope, path, sourceId);
+			if(null == version)
+				throw new FileNotFoundException(getSourceUri());
+			if(version.isGzipped())
+				fsWriter.setVary(VARY);
+			ReadableByteChannel gzip = version.isGzipped() && fsWriter.acceptsEncoding(FsResourceVariants.GZIP)
+					? variants.getGzipChannel(scope, sourceId) : null;
+			String etag = null != gzip ? version.getGzipETag() : version.getETag();
+			fsWriter.setETag(etag);
+			if(FsResourceVariants.matches(fsWriter.getIfNoneMatch(), etag)) {
+				if(null != gzip)
+					gzip.close();
+				fsWriter.notModified();
+				return;
+			}
+			if(null != gzip) {
+				fsWriter.setContentEncoding(FsResourceVariants.GZIP);
+				write(gzip, fsWriter);
+				return;
+			}
+		}
+		ReadableByteChannel in = client.getChannel(scope, path, sourceId);
+		if(null == in)
+			throw new FileNotFoundException(getSourceUri());
+		write(in, writer);
+	}
+
+	private void write(FsResourceCache.Entry entry, ResourceWriter writer) throws IOException {
+		ByteBuffer bytes = entry.getBytes();
+		WritableByteChannel out = null;
+		if(writer instanceof FsResourceWriter) {
+			FsResourceWriter fsWriter = (FsResourceWriter) writer;
+			if(null != entry.getGzipBytes())
+				fsWriter.setVary(VARY);
+			boolean gzip = null != entry.getGzipBytes() && fsWriter.acceptsEncoding(FsResourceVariants.GZIP);
+			String etag = gzip ? FsResourceVariants.gzipETag(entry.getETag()) : entry.getETag();
+			if(null != etag) {
+				fsWriter.setETag(etag);
+				if(FsResourceVariants.matches(fsWriter.getIfNoneMatch(), etag)) {
+					fsWriter.notModified();
+					return;
+				}
+			}
+			if(gzip) {
+				fsWriter.setContentEncoding(FsResourceVariants.GZIP);
+				bytes = entry.getGzipBytes();
+			}
+			fsWriter.setContentLength(bytes.remaining());
+			out = fsWriter.getChannel();
+		}
+		if(null == out)
+			out = Channels.newChannel(writer.getOutputStream());
+		while(bytes.hasRemaining())
+			out.write(bytes);
+	}
+
+	private void write(ReadableByteChannel in, ResourceWriter writer) throws IOException {
 		try {
-			IOUtils.copy(stream, writer.getOutputStream());
+			if(in instanceof FileChannel && writer instanceof FsResourceWriter)
+				((FsResourceWriter) writer).setContentLength(((FileChannel) in).size());
+			WritableByteChannel out = writer instanceof FsResourceWriter ? ((FsResourceWriter) writer).getChannel() : null;
+			if(null != out && in instanceof FileChannel)
+				FsChannels.transfer((FileChannel) in, 0, ((FileChannel) in).size(), out);
+			else
+				FsChannels.copy(in, null != out ? out : Channels.newChannel(writer.getOutputStream()));
 		} finally {
-			stream.close();
+			in.close();
 		}
 	}
 
+	/**
+	 * Writes length bytes starting at offset, e.g. to answer an HTTP Range request, without reading the rest of the file.
+	 */
+	public void writeTo(ResourceWriter writer, long offset, long length) throws IOException {
+		if(offset < 0 || length < 0)
+			throw new IllegalArgumentException("Negative offset " + offset + " or length " + length);
+		long end = Math.min(offset + Math.min(length, Long.MAX_VALUE - offset), getContentLength());
+		if(offset >= end) {
+			// a missing file reads as empty, but isn't
+			if(!client.exists(scope, path, sourceId))
+				throw new FileNotFoundException(getSourceUri());
+			return;
+		}
+		WritableByteChannel out = writer instanceof FsResourceWriter ? ((FsResourceWriter) writer).getChannel() : null;
+		if(null != out) {
+			ReadableByteChannel in = client.getChannel(scope, path, sourceId);
+			if(null == in)
+				throw new FileNotFoundException(getSourceUri());
+			try {
+				if(in instanceof FileChannel) {
+					FsChannels.transfer((FileChannel) in, offset, end - offset, out);
+					return;
+				}
+			} finally {
+				in.close();
+			}
+		} else {
+			out = Channels.newChannel(writer.getOutputStream());
+		}
+		ByteBuffer buffer = FsChannels.acquire();
+		try {
+			for(long position = offset; position < end; ) {
+				buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+				int read = read(buffer, position);
+				if(read < 0)
+					throw new FileNotFoundException(getSourceUri());
+				buffer.flip();
+				while(buffer.hasRemaining())
+					out.write(buffer);
+				position += read;
+			}
+		} finally {
+			FsChannels.release(buffer);
+		}
+	}
+
+	/**
+	 * Reads from position in the resource into dst; large resources are served from a memory mapping shared between readers.
+	 * 
+	 * @return the number of bytes read, or -1 at the end of the resource
+	 */
+	public int read(ByteBuffer dst, long position) {
+		return client.read(dst, position, scope, path, sourceId);
+	}
+
+	/**
+	 * A strong validator for the resource's current content, or null when variants aren't kept.
+	 */
+	public String getETag() {
+		if(null == variants)
+			return null;
+		FsResourceVariants.Version version = variants.current(scope, path, sourceId);
+		return null == version ? null : version.getETag();
+	}
+
+	public long getContentLength() {
+		return client.length(scope, path, sourceId);
+	}
+
 	@Override
-	public boolean exists() {		
-		return client.exists(scope, path, sourceId);
+	public boolean exists() {
+		if(null != negatives && negatives.contains(scope, path, sourceId))
+			return false;
+		if(null != cache && cache.contains(scope, path, sourceId))
+			return true;
+		// a stat, not a cache load that would read the whole file
+		boolean exists = client.exists(scope, path, sourceId);
+		if(!exists && null != negatives)
+			negatives.add(scope, path, sourceId);
+		return exists;
 	}
 }
\ No newline at end of file
@@ -3,18 +3,29 @@ package org.lukosan.salix.fs;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.lukosan.salix.MapUtils;
@@ -27,7 +38,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.util.ObjectUtils;
 import org.springframework.util.StringUtils;
-import org.yaml.snakeyaml.Yaml;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -49,38 +59,190 @@ public class FsSalixService implements SalixService {
 	private String urlPath;
 	@Value("${salix.fs.url.suffix:.yml}")
 	private String urlSuffix;
+	@Value("${salix.fs.url.indexed:false}")
+	private boolean urlIndexed;
+	@Value("${salix.fs.url.depth:2147483647}")
+	private int urlDepth;
 	
 	@Value("${salix.fs.template.path:templates}")
 	private String templatePath;
 	@Value("${salix.fs.template.suffix:.html}")
 	private String templateSuffix;
+	@Value("${salix.fs.template.cache.size:16777216}")
+	private long templateCacheSize;
 	
 	@Value("${salix.fs.resource.path:resources}")
 	private String resourcePath;
 	@Value("${salix.fs.resource.suffix:}")
 	private String resourceSuffix;
+	@Value("${salix.fs.resource.variants:false}")
+	private boolean resourceVariantsEnabled;
+	@Value("${salix.fs.resource.variant.path:.variants}")
+	private String resourceVariantPath;
+	@Value("${salix.fs.resource.metadata.path:.metadata}")
+	private String resourceMetadataPath;
+	@Value("${salix.fs.resource.gzip.suffixes:css,js,json,txt,html,htm,svg,xml,yml,map}")
+	private String[] gzipSuffixes;
+	@Value("${salix.fs.resource.gzip.max:10485760}")
+	private long gzipMaxLength;
+	@Value("${salix.fs.resource.hash.max:16777216}")
+	private long hashMaxLength;
+	@Value("${salix.fs.resource.cache.size:0}")
+	private long resourceCacheSize;
+	@Value("${salix.fs.resource.cache.max:65536}")
+	private long resourceCacheMaxLength;
+	@Value("${salix.fs.resource.cache.revalidate:1000}")
+	private long resourceCacheRevalidate;
+	@Value("${salix.fs.negative.size:0}")
+	private int negativeCacheSize;
+	@Value("${salix.fs.negative.ttl:10000}")
+	private long negativeCacheTtl;
+	@Value("${salix.fs.path}")
+	private String rootPath;
+	@Value("${salix.fs.journal.enabled:false}")
+	private boolean journalEnabled;
+	@Value("${salix.fs.journal.name:.journal}")
+	private String journalName;
+	@Value("${salix.fs.journal.max:16777216}")
+	private long journalMaxLength;
+	@Value("${salix.fs.journal.interval:1000}")
+	private long journalInterval;
+	@Value("${salix.fs.writebehind.enabled:false}")
+	private boolean writeBehindEnabled;
+	@Value("${salix.fs.writebehind.delay:200}")
+	private long writeBehindDelay;
+	@Value("${salix.fs.writebehind.batch:100}")
+	private int writeBehindBatch;
+	@Value("${salix.fs.writebehind.capacity:10000}")
+	private int writeBehindCapacity;
+	@Value("${salix.fs.writebehind.max:1048576}")
+	private int writeBehindMaxLength;
+	@Value("${salix.fs.writebehind.attempts:5}")
+	private int writeBehindAttempts;
 	
 	@Value("${salix.fs.configuration.path:configurations}")
 	private String configurationPath;
 	@Value("${salix.fs.configuration.suffix:.json}")
 	private String configurationSuffix;
+	@Value("${salix.fs.configuration.indexed:false}")
+	private boolean configurationIndexed;
+	
+	@Value("${salix.fs.parallelism:0}")
+	private int parallelism;
+	
+	@Value("${salix.fs.snapshot.enabled:false}")
+	private boolean snapshotEnabled;
+	@Value("${salix.fs.snapshot.name:.snapshot}")
+	private String snapshotName;
 	
 	@Autowired
 	private FsClient client;
+	@Autowired
+	private FsWatcher watcher;
+	@Autowired(required = false)
+	private AsyncFsClient asyncClient;
 	
 	private ObjectMapper mapper;
+	private final FsReaders readers;
+	private ForkJoinPool pool;
+	private FsUrlIndex urlIndex;
+	private FsScopeRegistry scopeRegistry;
+	private FsTemplateCache templateCache;
+	private FsResourceVariants resourceVariants;
+	private FsResourceCache resourceCache;
+	private FsResourceMetadata resourceMetadata;
+	private FsNegativeCache negatives;
+	private WriteBehindFsClient writeBehind;
+	private FsJournal journal;
+	private final Map<String, FsSnapshot> snapshots = new ConcurrentHashMap<String, FsSnapshot>();
 	
 	public FsSalixService() {
 		mapper = new ObjectMapper();
+		readers = new FsReaders(mapper);
+	}
+	
+	@PostConstruct
+	public void postConstruct() {
+		if(journalEnabled) {
+			// below any write-behind, so writes are journalled once they're on disk
+			journal = new FsJournal(Paths.get(rootPath, journalName), watcher, journalMaxLength, journalInterval);
+			client = new JournalingFsClient(client, journal);
+		}
+		if(writeBehindEnabled)
+			client = writeBehind = new WriteBehindFsClient(client, writeBehindDelay, writeBehindBatch, writeBehindCapacity, writeBehindMaxLength, writeBehindAttempts);
+		pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+		if(templateCacheSize > 0)
+			templateCache = new FsTemplateCache(templateCacheSize);
+		if(resourceVariantsEnabled)
+			resourceVariants = new FsResourceVariants(client, resourceVariantPath, gzipSuffixes, gzipMaxLength, hashMaxLength);
+		if(snapshotEnabled) {
+			watcher.addListener(this::snapshotChanged);
+			for(String scope : client.listFoldersInFolder(""))
+				loadSnapshot(scope);
+		}
+		if(configurationIndexed) {
+			FsScopeRegistry registry = new FsScopeRegistry(client, configurationPath, configurationSuffix, this::readConfiguration);
+			watcher.addListener(registry);
+			registry.load();
+			scopeRegistry = registry;
+		}
+		if(urlIndexed) {
+			// listen first so nothing saved while loading is missed
+			FsUrlIndex index = new FsUrlIndex(client, urlPath, urlSuffix, this::readUrl, pool);
+			watcher.addListener(index);
+			for(String scope : scopes())
+				index.load(scope);
+			urlIndex = index;
+		}
+		resourceMetadata = new FsResourceMetadata(client, mapper, resourceMetadataPath, resourceCacheRevalidate);
+		if(resourceCacheSize > 0) {
+			resourceCache = new FsResourceCache(client, resourceVariants, resourceCacheSize, resourceCacheMaxLength, resourceCacheRevalidate);
+			watcher.addListener(resourceCache);
+		}
+		if(negativeCacheSize > 0) {
+			negatives = new FsNegativeCache(negativeCacheSize, negativeCacheTtl);
+			// starts the watcher if nothing else has, so files arriving from a deploy or another node are seen
+			watcher.addListener(negatives);
+		}
+		// metadata revalidates by time anyway, so it doesn't start the watcher itself, only hears it if it's running
+		if(watcher.isWatching())
+			watcher.addListener(resourceMetadata);
+	}
+	
+	@PreDestroy
+	public void preDestroy() {
+		if(null != pool)
+			pool.shutdown();
+		if(null != writeBehind)
+			writeBehind.close();
+		if(null != journal)
+			journal.close();
+	}
+
+	/**
+	 * Writes out any saves still queued when write-behind is enabled.
+	 */
+	public void flush() {
+		if(null != writeBehind)
+			writeBehind.flush();
+	}
+
+	// queued saves aren't on disk for the async client to find
+	private boolean isPending(String... paths) {
+		return null != writeBehind && writeBehind.isPending(paths);
 	}
 	
 	@Override
 	public Set<String> scopes() {
+		if(null != scopeRegistry)
+			return scopeRegistry.scopes();
 		return new HashSet<String>(client.listFoldersInFolder(""));
 	}
 
 	@Override
 	public List<SalixConfiguration> configurationsFor(String target) {
+		if(null != scopeRegistry)
+			return scopeRegistry.configurationsFor(target);
 		List<SalixConfiguration> configs = new ArrayList<SalixConfiguration>();
 		for(String scope : scopes()) {
 			for(String key : client.listFilesInFolder(scope, configurationPath)) {
@@ -95,14 +257,25 @@ public class FsSalixService implements SalixService {
 	public SalixConfiguration configuration(String scope, String target) {
 		if(StringUtils.isEmpty(target))
 			return null;
-		InputStream stream = client.getInputStream(scope, configurationPath, target + configurationSuffix);
+		return readConfiguration(scope, target);
+	}
+
+	private SalixConfiguration readConfiguration(String scope, String target) {
+		SalixConfiguration configuration = snapshotConfiguration(scope, target);
+		if(null != configuration)
+			return configuration;
+		return readers.readConfiguration(client.getInputStream(scope, configurationPath, target + configurationSuffix), target + configurationSuffix);
+	}
+
+	private SalixConfiguration snapshotConfiguration(String scope, String target) {
+		FsSnapshot snapshot = snapshots.get(scope);
+		if(null == snapshot)
+			return null;
 		try {
-			return stream == null ? null : mapper.readValue(stream, FsSalixConfiguration.class);
-		} catch (Exception e) {
-			logger.error(e);
+			return snapshot.configuration(scope, target);
+		} catch (IOException e) {
+			logger.error("Problem reading SalixConfiguration from snapshot", e);
 			return null;
-		} finally {
-			close(stream);
 		}
 	}
 
@@ -120,23 +293,16 @@ public class FsSalixService implements SalixService {
 	public SalixConfiguration save(String scope, String target, Map<String, Object> map) {
 		try {
 			FsSalixConfiguration configuration = new FsSalixConfiguration(scope, target, map);
-			PipedOutputStream out = new PipedOutputStream();
-			PipedInputStream in = new PipedInputStream(out);
-			new Thread(new Runnable() {
-				    public void run(){
-				    	try {
-							mapper.writeValue(out, configuration);
-						} catch (IOException e) {
-							logger.error(e);
-						}
-				    }
-				}).start();
-			client.putInputStream(in, scope, configurationPath, target + configurationSuffix);
-			return configuration;
+			if(client.putInputStream(new ByteArrayInputStream(mapper.writeValueAsBytes(configuration)), scope, configurationPath, target + configurationSuffix)) {
+				removeFromSnapshot(scope, FsSnapshot.CONFIGURATION, target);
+				if(null != scopeRegistry)
+					scopeRegistry.put(scope, target, configuration);
+				return configuration;
+			}
 		} catch (IOException e) {
 			logger.error(e);
-			return null;
 		}
+		return null;
 	}
 
 	@Override
@@ -150,41 +316,60 @@ public class FsSalixService implements SalixService {
 		url = toFsUrl(url);
 		if(StringUtils.isEmpty(url))
 			return null;
-		InputStream stream = client.getInputStream(scope, urlPath, url + urlSuffix);
+		if(null != urlIndex)
+			return urlIndex.get(scope, url);
+		return readUrl(url, scope);
+	}
+
+	private SalixUrl readUrl(String url, String scope) {
+		SalixUrl salixUrl = snapshotUrl(url, scope);
+		if(null != salixUrl)
+			return salixUrl;
+		String key = url + urlSuffix;
+		if(null != negatives && negatives.contains(scope, urlPath, key))
+			return null;
+		InputStream stream = client.getInputStream(scope, urlPath, key);
+		if(null == stream && null != negatives)
+			negatives.add(scope, urlPath, key);
+		return readers.readUrl(stream, key);
+	}
+
+	private SalixUrl snapshotUrl(String url, String scope) {
+		FsSnapshot snapshot = snapshots.get(scope);
+		if(null == snapshot)
+			return null;
 		try {
-			if(urlSuffix.endsWith("json"))
-				return stream == null ? null : mapper.readValue(stream, FsSalixUrl.class);
-			return new Yaml().loadAs(stream, FsSalixUrl.class);
-		} catch (Exception e) {
-			logger.error("Problem reading SalixUrl", e);
+			return snapshot.url(scope, FsUrlIndex.normalize(url));
+		} catch (IOException e) {
+			logger.error("Problem reading SalixUrl from snapshot", e);
 			return null;
-		} finally {
-			close(stream);
 		}
 	}
 
 	@Override
 	public SalixUrl save(SalixUrl salixUrl) {
 		try {
-			PipedOutputStream out = new PipedOutputStream();
-			PipedInputStream in = new PipedInputStream(out);
-			new Thread(new Runnable() {
-				    public void run(){
-				    	try {
-							mapper.writeValue(out, salixUrl);
-						} catch (IOException e) {
-							logger.error(e);
-						}
-				    }
-				}).start();
-			client.putInputStream(in, salixUrl.getScope(), urlPath, toFsUrl(salixUrl.getUrl()) + urlSuffix);
-			return salixUrl;
+			if(client.putInputStream(new ByteArrayInputStream(mapper.writeValueAsBytes(salixUrl)), salixUrl.getScope(), urlPath, toFsUrl(salixUrl.getUrl()) + urlSuffix)) {
+				scopeSaved(salixUrl.getScope());
+				removeFromSnapshot(salixUrl.getScope(), FsSnapshot.URL, FsUrlIndex.normalize(toFsUrl(salixUrl.getUrl())));
+				if(null != urlIndex)
+					urlIndex.put(salixUrl.getScope(), toFsUrl(salixUrl.getUrl()), salixUrl);
+				if(null != negatives)
+					negatives.remove(salixUrl.getScope(), urlPath, toFsUrl(salixUrl.getUrl()) + urlSuffix);
+				return salixUrl;
+			}
 		} catch (IOException e) {
 			logger.error(e);
-			return salixUrl;
 		}
+		return null;
 	}
 	
+	// a save may be the first into a scope, and with watching off nothing else would tell the registry
+	private void scopeSaved(String scope) {
+		if(null != scopeRegistry)
+			scopeRegistry.add(scope);
+	}
+
 	private String toFsUrl(String url) {
 		if(url.length() == 0) url += "/";
 		if(url.endsWith("/")) url += "index";
@@ -201,25 +386,43 @@ public class FsSalixService implements SalixService {
 	public SalixTemplate template(String name) {
 		if(StringUtils.isEmpty(name))
 			return null;
-		InputStream stream = null;
-		try {
-			stream = client.getInputStream(templatePath, name + templateSuffix);
-			return stream == null ? null : mapper.readValue(stream, FsSalixTemplate.class);
-		} catch (Exception e) {
-			logger.error(e);
-			return null;
-		} finally {
-			close(stream);
-		}
+		return readers.readTemplate(client.getInputStream(templatePath, name + templateSuffix));
 	}
 
 	@Override
 	public SalixTemplate template(String name, String scope) {
 		if(StringUtils.isEmpty(name))
 			return null;
-		InputStream stream = null;
+		if(null != negatives && negatives.contains(scope, templatePath, name + templateSuffix))
+			return null;
+		if(null == templateCache)
+			return readTemplate(name, scope);
+		long lastModified = client.lastModified(scope, templatePath, name + templateSuffix);
+		if(lastModified == 0L) {
+			if(null != negatives)
+				negatives.add(scope, templatePath, name + templateSuffix);
+			return null;
+		}
+		// the length too, an edit within the same tick of the clock keeps the time
+		long length = client.length(scope, templatePath, name + templateSuffix);
+		SalixTemplate template = templateCache.get(scope, name, lastModified, length);
+		if(null == template) {
+			template = readTemplate(name, scope);
+			if(null != template)
+				templateCache.put(scope, name, lastModified, length, template);
+		}
+		return template;
+	}
+
+	private SalixTemplate readTemplate(String name, String scope) {
+		InputStream stream = client.getInputStream(scope, templatePath, name + templateSuffix);
+		if(null == stream && null != negatives)
+			negatives.add(scope, templatePath, name + templateSuffix);
+		return readTemplate(name, scope, stream);
+	}
+
+	private SalixTemplate readTemplate(String name, String scope, InputStream stream) {
 		try {
-			stream = client.getInputStream(scope, templatePath, name + templateSuffix);
 			return stream == null ? null : new FsSalixTemplate(scope, name, IOUtils.toString(stream));
 		} catch (Exception e) {
 			logger.error(e);
@@ -234,7 +437,13 @@ public class FsSalixService implements SalixService {
 		try {
 			FsSalixTemplate template = new FsSalixTemplate(scope, name, source);
 			InputStream in = new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8));
-			client.putInputStream(in, scope, templatePath, name + templateSuffix);
+			if(!client.putInputStream(in, scope, templatePath, name + templateSuffix))
+				return null;
+			scopeSaved(scope);
+			if(null != templateCache)
+				templateCache.remove(scope, name);
+			if(null != negatives)
+				negatives.remove(scope, templatePath, name + templateSuffix);
 			return template;
 		} catch (Exception e) {
 			logger.error(e);
@@ -244,72 +453,348 @@ public class FsSalixService implements SalixService {
 
 	@Override
 	public SalixResource resource(String sourceId, String scope) {
-		return new FsSalixResource(scope, resourcePath, sourceId + resourceSuffix, client);
+		return new FsSalixResource(scope, resourcePath, sourceId + resourceSuffix, client, resourceVariants, resourceCache, negatives, resourceMetadata);
 	}
 
 	@Override
 	public SalixResource save(String scope, String sourceId, String sourceUri, Map<String, Object> map) {
-		InputStream in = new ByteArrayInputStream(MapUtils.asString(map).getBytes(StandardCharsets.UTF_8));
-		client.putInputStream(in, scope, resourcePath, sourceId + resourceSuffix);
-		return new FsSalixResource(scope, resourcePath, sourceId + resourceSuffix, client);
+		byte[] bytes = MapUtils.asString(map).getBytes(StandardCharsets.UTF_8);
+		if(!client.putInputStream(new ByteArrayInputStream(bytes), scope, resourcePath, sourceId + resourceSuffix))
+			return null;
+		// no content type is given, so nothing saved earlier under this id is left claiming one
+		if(!resourceMetadata.put(scope, sourceId + resourceSuffix, null, bytes.length))
+			logger.warn("Saved " + scope + "/" + sourceId + " without its metadata");
+		resourceSaved(scope, sourceId + resourceSuffix);
+		return resource(sourceId, scope);
 	}
 
 	@Override
 	public SalixResource save(String scope, String sourceId, String sourceUri, String contentType, String text) {
-		// TODO Auto-generated method stub
-		return null;
+		return save(scope, sourceId, sourceUri, contentType, new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
 	}
 
 	@Override
 	public SalixResource save(String scope, String sourceId, String sourceUri, String contentType, byte[] bytes) {
-		// TODO Auto-generated method stub
-		return null;
+		return save(scope, sourceId, sourceUri, contentType, new ByteArrayInputStream(bytes));
+	}
+
+	/**
+	 * Streams the resource to disk, then records its content type and length alongside it. The stream is closed.
+	 */
+	public SalixResource save(String scope, String sourceId, String sourceUri, String contentType, InputStream in) {
+		CountingInputStream counting = new CountingInputStream(in);
+		if(!client.putInputStream(counting, scope, resourcePath, sourceId + resourceSuffix))
+			return null;
+		if(!resourceMetadata.put(scope, sourceId + resourceSuffix, contentType, counting.getByteCount()))
+			logger.warn("Saved " + scope + "/" + sourceId + " without its metadata");
+		resourceSaved(scope, sourceId + resourceSuffix);
+		return resource(sourceId, scope);
+	}
+
+	private void resourceSaved(String scope, String name) {
+		scopeSaved(scope);
+		if(null != resourceCache)
+			resourceCache.changed(scope, resourcePath, name);
+		if(null != negatives)
+			negatives.remove(scope, resourcePath, name);
+	}
+
+	/**
+	 * As {@link #url(String, String)} but the file is read on the {@link AsyncFsClient} rather than the calling thread.
+	 * The snapshot and the negative cache are consulted first, as they are for a synchronous read.
+	 */
+	public CompletableFuture<SalixUrl> urlAsync(String url, String scope) {
+		String fsUrl = toFsUrl(url);
+		String key = fsUrl + urlSuffix;
+		if(null != urlIndex || null == asyncClient || isPending(scope, urlPath, key))
+			return CompletableFuture.completedFuture(url(url, scope));
+		SalixUrl salixUrl = snapshotUrl(fsUrl, scope);
+		if(null != salixUrl)
+			return CompletableFuture.completedFuture(salixUrl);
+		if(null != negatives && negatives.contains(scope, urlPath, key))
+			return CompletableFuture.completedFuture(null);
+		return asyncClient.getInputStream(scope, urlPath, key).thenApply(stream -> {
+			if(null == stream && null != negatives)
+				negatives.add(scope, urlPath, key);
+			return readers.readUrl(stream, key);
+		});
+	}
+
+	/**
+	 * As {@link #template(String, String)} but the file is checked and read on the {@link AsyncFsClient}.
+	 */
+	public CompletableFuture<SalixTemplate> templateAsync(String name, String scope) {
+		if(StringUtils.isEmpty(name) || null == asyncClient || isPending(scope, templatePath, name + templateSuffix))
+			return CompletableFuture.completedFuture(template(name, scope));
+		String key = name + templateSuffix;
+		if(null != negatives && negatives.contains(scope, templatePath, key))
+			return CompletableFuture.completedFuture(null);
+		if(null == templateCache)
+			return asyncClient.getInputStream(scope, templatePath, key).thenApply(stream -> {
+				if(null == stream && null != negatives)
+					negatives.add(scope, templatePath, key);
+				return readTemplate(name, scope, stream);
+			});
+		CompletableFuture<Long> length = asyncClient.length(scope, templatePath, key);
+		return asyncClient.lastModified(scope, templatePath, key).thenCombine(length, (lastModified, size) -> new long[] { lastModified, size }).thenCompose(stat -> {
+			if(stat[0] == 0L) {
+				if(null != negatives)
+					negatives.add(scope, templatePath, key);
+				return CompletableFuture.completedFuture(null);
+			}
+			SalixTemplate cached = templateCache.get(scope, name, stat[0], stat[1]);
+			if(null != cached)
+				return CompletableFuture.completedFuture(cached);
+			return asyncClient.getInputStream(scope, templatePath, key).thenApply(stream -> {
+				SalixTemplate template = readTemplate(name, scope, stream);
+				if(null != template)
+					templateCache.put(scope, name, stat[0], stat[1], template);
+				return template;
+			});
+		});
+	}
+
+	/**
+	 * As {@link #configuration(String, String)} but the file is read on the {@link AsyncFsClient}, unless the scope's
+	 * snapshot has it.
+	 */
+	public CompletableFuture<SalixConfiguration> configurationAsync(String scope, String target) {
+		if(StringUtils.isEmpty(target) || null == asyncClient || isPending(scope, configurationPath, target + configurationSuffix))
+			return CompletableFuture.completedFuture(configuration(scope, target));
+		SalixConfiguration configuration = snapshotConfiguration(scope, target);
+		if(null != configuration)
+			return CompletableFuture.completedFuture(configuration);
+		return asyncClient.getInputStream(scope, configurationPath, target + configurationSuffix)
+				.thenApply(stream -> readers.readConfiguration(stream, target + configurationSuffix));
+	}
+
+	/**
+	 * Compiles the scope's urls and configurations, as they are on disk now, into its snapshot file.
+	 */
+	public boolean compileSnapshot(String scope) {
+		FsSnapshot.Writer writer = new FsSnapshot.Writer(mapper);
+		try {
+			for(String key : FsWalker.on(pool, () -> client.listFilesInSubFolders(Integer.MAX_VALUE, glob(urlSuffix), scope, urlPath))) {
+				if(!key.endsWith(urlSuffix))
+					continue;
+				// read the time first so an edit made while compiling shows as newer than the snapshot
+				long lastModified = client.lastModified(scope, urlPath, key);
+				SalixUrl salixUrl = readers.readUrl(client.getInputStream(scope, urlPath, key), key);
+				if(null != salixUrl)
+					writer.url(FsUrlIndex.normalize(strip(key, urlSuffix)), salixUrl, lastModified);
+			}
+			for(String key : client.listFilesInFolder(scope, configurationPath)) {
+				if(!key.endsWith(configurationSuffix))
+					continue;
+				long lastModified = client.lastModified(scope, configurationPath, key);
+				SalixConfiguration configuration = readers.readConfiguration(client.getInputStream(scope, configurationPath, key), key);
+				if(null != configuration)
+					writer.configuration(strip(key, configurationSuffix), configuration, lastModified);
+			}
+			return client.putInputStream(new ByteArrayInputStream(writer.toByteArray()), scope, snapshotName);
+		} catch (IOException e) {
+			logger.error("Problem compiling snapshot of " + scope, e);
+			return false;
+		}
+	}
+
+	private void loadSnapshot(String scope) {
+		ByteBuffer buffer = client.map(scope, snapshotName);
+		if(null == buffer) {
+			snapshots.remove(scope);
+			return;
+		}
+		try {
+			FsSnapshot snapshot = FsSnapshot.read(buffer, mapper);
+			// anything changed since it was compiled is read from its own file instead
+			for(Map.Entry<String, Long> entry : snapshot.lastModified(FsSnapshot.URL).entrySet())
+				if(client.lastModified(scope, urlPath, entry.getKey() + urlSuffix) != entry.getValue())
+					snapshot.remove(FsSnapshot.URL, entry.getKey());
+			for(Map.Entry<String, Long> entry : snapshot.lastModified(FsSnapshot.CONFIGURATION).entrySet())
+				if(client.lastModified(scope, configurationPath, entry.getKey() + configurationSuffix) != entry.getValue())
+					snapshot.remove(FsSnapshot.CONFIGURATION, entry.getKey());
+			snapshots.put(scope, snapshot);
+			if(logger.isInfoEnabled())
+				logger.info("Loaded snapshot of " + scope + " with " + snapshot.size() + " current entries");
+		} catch (IOException | RuntimeException e) {
+			logger.error("Problem reading snapshot of " + scope, e);
+			snapshots.remove(scope);
+		}
+	}
+
+	private void snapshotChanged(String scope, String folder, String key) {
+		if(null == scope) {
+			snapshots.clear();
+		} else if(snapshotName.equals(folder)) {
+			loadSnapshot(scope);
+		} else if(null == folder || null == key) {
+			if(null == folder || urlPath.equals(folder) || configurationPath.equals(folder))
+				snapshots.remove(scope);
+		} else if(urlPath.equals(folder) && key.endsWith(urlSuffix)) {
+			removeFromSnapshot(scope, FsSnapshot.URL, FsUrlIndex.normalize(strip(key, urlSuffix)));
+		} else if(configurationPath.equals(folder) && key.endsWith(configurationSuffix)) {
+			removeFromSnapshot(scope, FsSnapshot.CONFIGURATION, strip(key, configurationSuffix));
+		}
+	}
+
+	// the watcher thread can drop the snapshot at any time, so look it up only once
+	private void removeFromSnapshot(String scope, byte category, String key) {
+		FsSnapshot snapshot = snapshots.get(scope);
+		if(null != snapshot)
+			snapshot.remove(category, key);
+	}
+
+	/**
+	 * Reads the resource into the resource cache, if there is one and it isn't there already.
+	 * 
+	 * @return whether the resource is now cached
+	 */
+	boolean cacheResource(String sourceId, String scope) {
+		if(null == resourceCache)
+			return false;
+		FsResourceCache.Entry entry = resourceCache.get(scope, resourcePath, sourceId + resourceSuffix);
+		return null != entry && entry.isCached();
+	}
+
+	boolean hasSnapshot(String scope) {
+		return snapshots.containsKey(scope);
+	}
+
+	public FsTemplateCache getTemplateCache() {
+		return templateCache;
+	}
+
+	public FsResourceCache getResourceCache() {
+		return resourceCache;
+	}
+
+	public FsNegativeCache getNegativeCache() {
+		return negatives;
 	}
 
 	@Override
 	public List<SalixTemplate> templatesIn(String scope) {
-		List<SalixTemplate> templates = new ArrayList<SalixTemplate>();
+		return load(templateNames(scope), name -> template(name, scope));
+	}
+
+	List<String> templateNames(String scope) {
+		List<String> names = new ArrayList<String>();
 		for(String key : client.listFilesInFolder(scope, templatePath)) {
 			if(matches(key, templateSuffix, configurationPath, resourcePath))
-				templates.add(template(strip(key, templateSuffix), scope));
+				names.add(strip(key, templateSuffix));
 		}
-		return templates.stream().filter(c -> null != c).collect(Collectors.toList());
+		return names;
 	}
 
 	@Override
 	public List<SalixResource> resourcesIn(String scope) {
-		List<SalixResource> resources = new ArrayList<SalixResource>();
+		List<String> sourceIds = sourceIds(scope);
+		Collections.sort(sourceIds);
+		return sourceIds.stream().map(sourceId -> resource(sourceId, scope)).filter(c -> null != c).collect(Collectors.toList());
+	}
+
+	List<String> sourceIds(String scope) {
+		List<String> sourceIds = new ArrayList<String>();
 		for(String key : client.listFilesInFolder(scope, resourcePath)) {
 			if(matches(key, resourceSuffix, templatePath, urlPath))
-				resources.add(resource(strip(key, resourceSuffix), scope));
+				sourceIds.add(strip(key, resourceSuffix));
 		}
-		return resources.stream().filter(c -> null != c).collect(Collectors.toList());
+		return sourceIds;
 	}
 	
 	@Override
 	public List<SalixUrl> urlsIn(String scope) {
-		List<SalixUrl> urls = new ArrayList<SalixUrl>();
-		for(String key : client.listFilesInSubFolders(scope, urlPath)) {
+		return load(urls(scope), url -> url(url, scope));
+	}
+
+	List<String> urls(String scope) {
+		List<String> urls = new ArrayList<String>();
+		// on the loader pool, so the walk's blocking reads fork there
+		for(String key : FsWalker.on(pool, () -> client.listFilesInSubFolders(urlDepth, glob(urlSuffix), scope, urlPath))) {
 			if(matches(key, urlSuffix, configurationPath, resourcePath))
-				urls.add(url(strip(key, urlSuffix), scope));
+				urls.add(strip(key, urlSuffix));
 		}
-		return urls.stream().filter(c -> null != c).collect(Collectors.toList());
+		return urls;
 	}
 	
 	@Override
 	public List<SalixConfiguration> configurationsIn(String scope) {
-		List<SalixConfiguration> configs = new ArrayList<SalixConfiguration>();
+		List<String> targets = new ArrayList<String>();
 		for(String key : client.listFilesInFolder(scope, configurationPath)) {
 			if(matches(key, configurationSuffix, urlPath, resourcePath, templatePath))
-				configs.add(configuration(scope, strip(key, configurationSuffix)));
+				targets.add(strip(key, configurationSuffix));
+		}
+		return load(targets, target -> configuration(scope, target));
+	}
+
+	/**
+	 * As {@link #urlsIn(String)} but each url is only read when the stream reaches it. Close the stream when done,
+	 * e.g. with try-with-resources, to release the underlying directory handles.
+	 */
+	public Stream<SalixUrl> streamUrlsIn(String scope) {
+		return client.streamFilesInSubFolders(scope, urlPath)
+				.filter(key -> matches(key, urlSuffix, configurationPath, resourcePath))
+				.map(key -> url(strip(key, urlSuffix), scope))
+				.filter(c -> null != c);
+	}
+
+	/**
+	 * As {@link #templatesIn(String)} but each template is only read when the stream reaches it.
+	 */
+	public Stream<SalixTemplate> streamTemplatesIn(String scope) {
+		return client.streamFilesInFolder(scope, templatePath)
+				.filter(key -> matches(key, templateSuffix, configurationPath, resourcePath))
+				.map(key -> template(strip(key, templateSuffix), scope))
+				.filter(c -> null != c);
+	}
+
+	/**
+	 * As {@link #resourcesIn(String)} but lazily; resources are never read until written.
+	 */
+	public Stream<SalixResource> streamResourcesIn(String scope) {
+		return client.streamFilesInFolder(scope, resourcePath)
+				.filter(key -> matches(key, resourceSuffix, templatePath, urlPath))
+				.map(key -> resource(strip(key, resourceSuffix), scope));
+	}
+
+	/**
+	 * As {@link #configurationsIn(String)} but each configuration is only read when the stream reaches it.
+	 */
+	public Stream<SalixConfiguration> streamConfigurationsIn(String scope) {
+		return client.streamFilesInFolder(scope, configurationPath)
+				.filter(key -> matches(key, configurationSuffix, urlPath, resourcePath, templatePath))
+				.map(key -> configuration(scope, strip(key, configurationSuffix)))
+				.filter(c -> null != c);
+	}
+
+	/**
+	 * Reads each key on the loader pool, returning the non-null results in key order.
+	 */
+	private <T> List<T> load(List<String> keys, Function<String, T> reader) {
+		Collections.sort(keys);
+		if(null == pool || keys.size() < 2)
+			return keys.stream().map(reader).filter(c -> null != c).collect(Collectors.toList());
+		try {
+			// a parallel stream started from within the pool runs on the pool rather than the common pool
+			return pool.submit(() -> keys.parallelStream().map(reader).filter(c -> null != c).collect(Collectors.toList())).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Collections.emptyList();
+		} catch (ExecutionException e) {
+			logger.error(e.getCause());
+			return Collections.emptyList();
 		}
-		return configs.stream().filter(c -> null != c).collect(Collectors.toList());
 	}
 
 	private String strip(String key, String suffix) {
 		return key.substring(0, key.length() - suffix.length());
 	}
 
+	// the suffix match, for the client to apply while listing
+	private String glob(String suffix) {
+		return StringUtils.hasText(suffix) ? "*" + suffix : null;
+	}
+
 	private boolean matches(String key, String suffix, String... exclusions) {
 		for(String exclusion : exclusions)
 			if(StringUtils.hasText(exclusion) && key.startsWith(exclusion))
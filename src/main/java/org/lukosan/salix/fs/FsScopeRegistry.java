@@ -0,0 +1,129 @@
+package org.lukosan.salix.fs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+
+import org.lukosan.salix.SalixConfiguration;
+
+/**
+ * Keeps the set of scopes, and every scope's configurations indexed by lower-cased target, in memory so neither
+ * needs a directory listing. Kept current by the {@link FsWatcher}.
+ */
+class FsScopeRegistry implements FsChangeListener {
+
+	private final Set<String> scopes = ConcurrentHashMap.newKeySet();
+	private final ConcurrentMap<String, ConcurrentMap<String, SalixConfiguration>> targets = new ConcurrentHashMap<String, ConcurrentMap<String, SalixConfiguration>>();
+
+	private final FsClient client;
+	private final String configurationPath;
+	private final String configurationSuffix;
+	private final BiFunction<String, String, SalixConfiguration> reader;
+
+	/**
+	 * @param reader reads a configuration from the file-system given (scope, target)
+	 */
+	FsScopeRegistry(FsClient client, String configurationPath, String configurationSuffix, BiFunction<String, String, SalixConfiguration> reader) {
+		this.client = client;
+		this.configurationPath = configurationPath;
+		this.configurationSuffix = configurationSuffix;
+		this.reader = reader;
+	}
+
+	public Set<String> scopes() {
+		return new HashSet<String>(scopes);
+	}
+
+	public List<SalixConfiguration> configurationsFor(String target) {
+		Map<String, SalixConfiguration> configs = targets.get(target.toLowerCase(Locale.ROOT));
+		return null == configs ? Collections.<SalixConfiguration>emptyList() : new ArrayList<SalixConfiguration>(configs.values());
+	}
+
+	/**
+	 * Records that the scope exists, e.g. once something has been saved into it.
+	 */
+	public void add(String scope) {
+		scopes.add(scope);
+	}
+
+	public void put(String scope, String target, SalixConfiguration configuration) {
+		scopes.add(scope);
+		ConcurrentMap<String, SalixConfiguration> configs = targets.computeIfAbsent(target.toLowerCase(Locale.ROOT), t -> new ConcurrentHashMap<String, SalixConfiguration>());
+		if(null == configuration)
+			configs.remove(key(scope, target));
+		else
+			configs.put(key(scope, target), configuration);
+	}
+
+	public void load() {
+		List<String> names = client.listFoldersInFolder("");
+		for(String scope : new ArrayList<String>(scopes))
+			if(!names.contains(scope))
+				remove(scope);
+		for(String scope : names)
+			load(scope);
+	}
+
+	/**
+	 * Reads the scope's configurations and then swaps them in, so lookups keep finding the old ones meanwhile.
+	 */
+	public void load(String scope) {
+		Map<String, SalixConfiguration> loaded = new HashMap<String, SalixConfiguration>();
+		for(String key : client.listFilesInFolder(scope, configurationPath)) {
+			if(key.endsWith(configurationSuffix)) {
+				SalixConfiguration configuration = reader.apply(scope, strip(key));
+				if(null != configuration)
+					loaded.put(strip(key), configuration);
+			}
+		}
+		scopes.add(scope);
+		for(Map.Entry<String, SalixConfiguration> entry : loaded.entrySet())
+			put(scope, entry.getKey(), entry.getValue());
+		Set<String> keys = new HashSet<String>();
+		for(String target : loaded.keySet())
+			keys.add(key(scope, target));
+		String prefix = scope + "/";
+		for(Map<String, SalixConfiguration> configs : targets.values())
+			configs.keySet().removeIf(k -> k.startsWith(prefix) && !keys.contains(k));
+	}
+
+	@Override
+	public void changed(String scope, String folder, String key) {
+		if(null == scope) {
+			load();
+		} else if(null == folder) {
+			if(client.listFoldersInFolder("").contains(scope))
+				load(scope);
+			else
+				remove(scope);
+		} else if(configurationPath.equals(folder)) {
+			if(null == key)
+				load(scope);
+			else if(key.endsWith(configurationSuffix))
+				put(scope, strip(key), client.exists(scope, configurationPath, key) ? reader.apply(scope, strip(key)) : null);
+		}
+	}
+
+	private void remove(String scope) {
+		scopes.remove(scope);
+		String prefix = scope + "/";
+		for(Map<String, SalixConfiguration> configs : targets.values())
+			configs.keySet().removeIf(k -> k.startsWith(prefix));
+	}
+
+	private String strip(String key) {
+		return key.substring(0, key.length() - configurationSuffix.length());
+	}
+
+	private static String key(String scope, String target) {
+		return scope + "/" + target;
+	}
+}
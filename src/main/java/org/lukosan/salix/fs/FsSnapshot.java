@@ -0,0 +1,240 @@
+package org.lukosan.salix.fs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.lukosan.salix.SalixConfiguration;
+import org.lukosan.salix.SalixUrl;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+/**
+ * A scope's urls and configurations compiled into one file, read straight from a memory mapping:
+ * 
+ * header    -- magic, version, created millis
+ * strings   -- count, then each as length-prefixed UTF-8; keys and views are stored once and referred to by index
+ * index     -- count, then each entry as category, key string, payload offset, payload length, source last-modified
+ * payload   -- urls as url string, view string, status, length-prefixed json map;
+ *              configurations as target string, length-prefixed json map
+ */
+class FsSnapshot {
+
+	private static final int MAGIC = 0x534c5853;
+	private static final int VERSION = 1;
+
+	static final byte URL = 0;
+	static final byte CONFIGURATION = 1;
+
+	private static final TypeReference<Map<String, Object>> MAP = new TypeReference<Map<String, Object>>() { };
+
+	private final ByteBuffer buffer;
+	private final ObjectMapper mapper;
+	private final long created;
+	private final String[] strings;
+	private final int payload;
+	private final Map<String, Entry> urls = new ConcurrentHashMap<String, Entry>();
+	private final Map<String, Entry> configurations = new ConcurrentHashMap<String, Entry>();
+
+	private FsSnapshot(ByteBuffer buffer, ObjectMapper mapper) throws IOException {
+		this.buffer = buffer;
+		this.mapper = mapper;
+		ByteBuffer in = buffer.duplicate();
+		if(in.remaining() < 16 || in.getInt() != MAGIC || in.getInt() != VERSION)
+			throw new IOException("Not a salix snapshot");
+		// a file cut short, e.g. by a full disk, is refused here rather than failing a lookup later
+		try {
+			created = in.getLong();
+			strings = new String[in.getInt()];
+			for(int i = 0; i < strings.length; i++) {
+				byte[] bytes = new byte[in.getInt()];
+				in.get(bytes);
+				strings[i] = new String(bytes, StandardCharsets.UTF_8);
+			}
+			for(int i = in.getInt(); i > 0; i--) {
+				byte category = in.get();
+				String key = strings[in.getInt()];
+				Entry entry = new Entry(in.getInt(), in.getInt(), in.getLong());
+				if(entry.offset < 0 || entry.length < 0)
+					throw new IOException("Damaged salix snapshot");
+				(category == URL ? urls : configurations).put(key, entry);
+			}
+			payload = in.position();
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+			throw new IOException("Damaged salix snapshot", e);
+		}
+		for(Entry entry : urls.values())
+			check(entry);
+		for(Entry entry : configurations.values())
+			check(entry);
+	}
+
+	private void check(Entry entry) throws IOException {
+		if((long) payload + entry.offset + entry.length > buffer.limit())
+			throw new IOException("Damaged salix snapshot");
+	}
+
+	static FsSnapshot read(ByteBuffer buffer, ObjectMapper mapper) throws IOException {
+		return new FsSnapshot(buffer, mapper);
+	}
+
+	long getCreated() {
+		return created;
+	}
+
+	/**
+	 * The last-modified time of each entry's source file when the snapshot was compiled.
+	 */
+	Map<String, Long> lastModified(byte category) {
+		Map<String, Long> lastModified = new HashMap<String, Long>();
+		for(Map.Entry<String, Entry> entry : (category == URL ? urls : configurations).entrySet())
+			lastModified.put(entry.getKey(), entry.getValue().lastModified);
+		return lastModified;
+	}
+
+	void remove(byte category, String key) {
+		(category == URL ? urls : configurations).remove(key);
+	}
+
+	int size() {
+		return urls.size() + configurations.size();
+	}
+
+	SalixUrl url(String scope, String key) throws IOException {
+		ByteBuffer in = record(urls.get(key));
+		if(null == in)
+			return null;
+		String url = string(in.getInt());
+		String view = string(in.getInt());
+		int status = in.getInt();
+		return new FsSalixUrl(scope, url, status, view, map(in));
+	}
+
+	SalixConfiguration configuration(String scope, String key) throws IOException {
+		ByteBuffer in = record(configurations.get(key));
+		if(null == in)
+			return null;
+		String target = string(in.getInt());
+		return new FsSalixConfiguration(scope, target, map(in));
+	}
+
+	private String string(int index) {
+		return index < 0 ? null : strings[index];
+	}
+
+	private ByteBuffer record(Entry entry) {
+		if(null == entry)
+			return null;
+		ByteBuffer in = buffer.duplicate();
+		in.limit(payload + entry.offset + entry.length).position(payload + entry.offset);
+		return in;
+	}
+
+	private Map<String, Object> map(ByteBuffer in) throws IOException {
+		int length = in.getInt();
+		if(length < 0)
+			return null;
+		ByteBuffer json = in.slice();
+		json.limit(length);
+		return mapper.readValue(new ByteBufferBackedInputStream(json), MAP);
+	}
+
+	private static class Entry {
+		private final int offset;
+		private final int length;
+		private final long lastModified;
+
+		private Entry(int offset, int length, long lastModified) {
+			this.offset = offset;
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+	}
+
+	/**
+	 * Builds the bytes of a snapshot.
+	 */
+	static class Writer {
+
+		private final ObjectMapper mapper;
+		private final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+		private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+		private final DataOutputStream entries = new DataOutputStream(index);
+		private int count;
+		private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(payload);
+
+		Writer(ObjectMapper mapper) {
+			this.mapper = mapper;
+		}
+
+		void url(String key, SalixUrl url, long lastModified) throws IOException {
+			int offset = out.size();
+			out.writeInt(intern(url.getUrl()));
+			out.writeInt(intern(url.getView()));
+			out.writeInt(url.getStatus());
+			map(url.getMap());
+			entry(URL, key, offset, lastModified);
+		}
+
+		void configuration(String key, SalixConfiguration configuration, long lastModified) throws IOException {
+			int offset = out.size();
+			out.writeInt(intern(configuration.getTarget()));
+			map(configuration.getMap());
+			entry(CONFIGURATION, key, offset, lastModified);
+		}
+
+		private void entry(byte category, String key, int offset, long lastModified) throws IOException {
+			entries.writeByte(category);
+			entries.writeInt(intern(key));
+			entries.writeInt(offset);
+			entries.writeInt(out.size() - offset);
+			entries.writeLong(lastModified);
+			count++;
+		}
+
+		byte[] toByteArray() throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.size() + index.size() + 1024);
+			DataOutputStream header = new DataOutputStream(bytes);
+			header.writeInt(MAGIC);
+			header.writeInt(VERSION);
+			header.writeLong(System.currentTimeMillis());
+			header.writeInt(strings.size());
+			for(String string : strings.keySet()) {
+				byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+				header.writeInt(utf8.length);
+				header.write(utf8);
+			}
+			header.writeInt(count);
+			index.writeTo(header);
+			payload.writeTo(header);
+			header.flush();
+			return bytes.toByteArray();
+		}
+
+		private int intern(String string) {
+			if(null == string)
+				return -1;
+			return strings.computeIfAbsent(string, s -> strings.size());
+		}
+
+		private void map(Map<String, Object> map) throws IOException {
+			if(null == map) {
+				out.writeInt(-1);
+				return;
+			}
+			byte[] json = mapper.writeValueAsBytes(map);
+			out.writeInt(json.length);
+			out.write(json);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package org.lukosan.salix.fs;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.lukosan.salix.SalixService;
+import org.lukosan.salix.autoconfigure.FsAutoConfiguration;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.core.env.MapPropertySource;
+
+/**
+ * Compiles the snapshot of each named scope, or of every scope, below a salix root:
+ * 
+ * java -Dsalix.fs.url.suffix=.yml org.lukosan.salix.fs.FsSnapshotCompiler /home/username/salix-files [scopename...]
+ * 
+ * Any other salix.fs properties can be given as system properties.
+ */
+public class FsSnapshotCompiler {
+
+	public static void main(String[] args) {
+		if(args.length < 1) {
+			System.err.println("Usage: FsSnapshotCompiler <salix.fs.path> [scope...]");
+			System.exit(1);
+		}
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("snapshot", Collections.<String, Object>singletonMap("salix.fs.path", args[0])));
+		context.register(Placeholders.class, FsAutoConfiguration.SalixFsConfiguration.class);
+		context.refresh();
+		boolean compiled = true;
+		try {
+			FsSalixService service = (FsSalixService) context.getBean(SalixService.class);
+			Collection<String> scopes = args.length > 1 ? Arrays.asList(args).subList(1, args.length) : service.scopes();
+			for(String scope : scopes) {
+				boolean ok = service.compileSnapshot(scope);
+				System.out.println((ok ? "Compiled " : "Failed to compile ") + scope);
+				compiled &= ok;
+			}
+		} finally {
+			context.close();
+		}
+		System.exit(compiled ? 0 : 1);
+	}
+
+	@Configuration
+	static class Placeholders {
+		@Bean
+		public static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
+			return new PropertySourcesPlaceholderConfigurer();
+		}
+	}
+}
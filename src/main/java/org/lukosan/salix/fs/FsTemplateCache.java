@@ -0,0 +1,127 @@
+package org.lukosan.salix.fs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.lukosan.salix.SalixTemplate;
+
+/**
+ * Least-recently-used cache of parsed templates, bounded by the total length of the template sources it holds.
+ * Each entry remembers the last-modified time and length of its file and is only returned while both still match.
+ * Callers get their own copy of the template, so nothing they do to it reaches the cache.
+ */
+public class FsTemplateCache {
+
+	private final long maxSize;
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long size;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public FsTemplateCache(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public SalixTemplate get(String scope, String name, long lastModified, long length) {
+		synchronized (entries) {
+			Entry entry = entries.get(key(scope, name));
+			if(null != entry && entry.lastModified == lastModified && entry.length == length) {
+				hits.incrementAndGet();
+				return copy(entry.template);
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	public void put(String scope, String name, long lastModified, long length, SalixTemplate template) {
+		long weight = weigh(template);
+		if(weight > maxSize)
+			return;
+		synchronized (entries) {
+			Entry previous = entries.put(key(scope, name), new Entry(copy(template), lastModified, length, weight));
+			if(null != previous)
+				size -= previous.weight;
+			size += weight;
+			Iterator<Entry> eldest = entries.values().iterator();
+			while(size > maxSize && eldest.hasNext()) {
+				size -= eldest.next().weight;
+				eldest.remove();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	public void remove(String scope, String name) {
+		synchronized (entries) {
+			Entry previous = entries.remove(key(scope, name));
+			if(null != previous)
+				size -= previous.weight;
+		}
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+			size = 0;
+		}
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	public long getSize() {
+		synchronized (entries) {
+			return size;
+		}
+	}
+
+	public int getCount() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	private static String key(String scope, String name) {
+		return scope + "/" + name;
+	}
+
+	private static SalixTemplate copy(SalixTemplate template) {
+		return new FsSalixTemplate(template.getScope(), template.getName(), template.getSource());
+	}
+
+	private static long weigh(SalixTemplate template) {
+		return null == template.getSource() ? 0 : template.getSource().length();
+	}
+
+	private static class Entry {
+		private final SalixTemplate template;
+		private final long lastModified;
+		private final long length;
+		private final long weight;
+
+		private Entry(SalixTemplate template, long lastModified, long length, long weight) {
+			this.template = template;
+			this.lastModified = lastModified;
+			this.length = length;
+			this.weight = weight;
+		}
+	}
+}
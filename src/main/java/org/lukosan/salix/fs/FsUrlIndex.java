@@ -0,0 +1,166 @@
+package org.lukosan.salix.fs;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+
+import org.lukosan.salix.SalixUrl;
+
+/**
+ * Holds every {@link SalixUrl} of each scope in memory, keyed by its file path below the url folder without the
+ * suffix, so lookups never touch the file-system. Kept current by the {@link FsWatcher}. Callers get their own copy of
+ * each url, so nothing they do to it reaches the index.
+ */
+class FsUrlIndex implements FsChangeListener {
+
+	private final ConcurrentMap<String, ConcurrentMap<String, SalixUrl>> scopes = new ConcurrentHashMap<String, ConcurrentMap<String, SalixUrl>>();
+	// keys changed in each scope while it's being loaded, to apply again once the load is done
+	private final ConcurrentMap<String, Set<String>> loading = new ConcurrentHashMap<String, Set<String>>();
+
+	private final FsClient client;
+	private final String urlPath;
+	private final String urlSuffix;
+	private final BiFunction<String, String, SalixUrl> reader;
+	private final ForkJoinPool pool;
+
+	/**
+	 * @param reader reads a url from the file-system given (url, scope)
+	 * @param pool the url folder is listed on, may be null
+	 */
+	FsUrlIndex(FsClient client, String urlPath, String urlSuffix, BiFunction<String, String, SalixUrl> reader, ForkJoinPool pool) {
+		this.client = client;
+		this.urlPath = urlPath;
+		this.urlSuffix = urlSuffix;
+		this.reader = reader;
+		this.pool = pool;
+	}
+
+	public SalixUrl get(String scope, String url) {
+		Map<String, SalixUrl> urls = scopes.get(scope);
+		return null == urls ? null : copy(urls.get(normalize(url)));
+	}
+
+	public void put(String scope, String url, SalixUrl salixUrl) {
+		ConcurrentMap<String, SalixUrl> urls = scopes.computeIfAbsent(scope, s -> new ConcurrentHashMap<String, SalixUrl>());
+		if(null == salixUrl)
+			urls.remove(normalize(url));
+		else
+			urls.put(normalize(url), copy(salixUrl));
+	}
+
+	/**
+	 * Reads every url of the scope into the index. Urls that fail to read keep any value they already had, and
+	 * changes heard while loading are applied again at the end, so the scan never overwrites them with what it read
+	 * earlier.
+	 */
+	public void load(String scope) {
+		Set<String> changed = ConcurrentHashMap.newKeySet();
+		loading.put(scope, changed);
+		try {
+			ConcurrentMap<String, SalixUrl> urls = scopes.computeIfAbsent(scope, s -> new ConcurrentHashMap<String, SalixUrl>());
+			Set<String> seen = new HashSet<String>();
+			for(String key : FsWalker.on(pool, () -> client.listFilesInSubFolders(Integer.MAX_VALUE, "*" + urlSuffix, scope, urlPath))) {
+				if(key.endsWith(urlSuffix)) {
+					String url = strip(key);
+					seen.add(normalize(url));
+					SalixUrl salixUrl = reader.apply(url, scope);
+					if(null != salixUrl)
+						urls.put(normalize(url), salixUrl);
+				}
+			}
+			urls.keySet().removeIf(url -> !seen.contains(url));
+		} finally {
+			loading.remove(scope, changed);
+		}
+		for(String key : changed)
+			changed(scope, urlPath, key);
+	}
+
+	public int size(String scope) {
+		Map<String, SalixUrl> urls = scopes.get(scope);
+		return null == urls ? 0 : urls.size();
+	}
+
+	@Override
+	public void changed(String scope, String folder, String key) {
+		if(null == scope) {
+			List<String> names = client.listFoldersInFolder("");
+			scopes.keySet().retainAll(names);
+			for(String name : names)
+				load(name);
+		} else if(null == folder || null == key) {
+			if(null != folder && !urlPath.equals(folder))
+				return;
+			if(client.exists(scope))
+				load(scope);
+			else
+				scopes.remove(scope);
+		} else if(urlPath.equals(folder)) {
+			Set<String> changed = loading.get(scope);
+			if(null != changed)
+				changed.add(key);
+			if(client.exists(scope, urlPath, key)) {
+				if(key.endsWith(urlSuffix)) {
+					// a file caught half written fails to parse; keep what we had until the write that finishes it
+					SalixUrl salixUrl = reader.apply(strip(key), scope);
+					if(null != salixUrl)
+						put(scope, strip(key), salixUrl);
+				}
+			} else {
+				remove(scope, key);
+			}
+		}
+	}
+
+	private void remove(String scope, String key) {
+		Map<String, SalixUrl> urls = scopes.get(scope);
+		if(null == urls)
+			return;
+		String folder = normalize(key) + "/";
+		urls.keySet().removeIf(url -> url.startsWith(folder));
+		if(key.endsWith(urlSuffix))
+			urls.remove(normalize(strip(key)));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object copy(Object value) {
+		if(value instanceof Map) {
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+			for(Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet())
+				map.put(entry.getKey(), copy(entry.getValue()));
+			return map;
+		}
+		if(value instanceof List) {
+			List<Object> list = new ArrayList<Object>();
+			for(Object item : (List<Object>) value)
+				list.add(copy(item));
+			return list;
+		}
+		return value;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static SalixUrl copy(SalixUrl url) {
+		if(null == url)
+			return null;
+		return new FsSalixUrl(url.getScope(), url.getUrl(), url.getStatus(), url.getView(), (Map<String, Object>) copy(url.getMap()));
+	}
+
+	private String strip(String key) {
+		return key.substring(0, key.length() - urlSuffix.length());
+	}
+
+	static String normalize(String url) {
+		int start = 0;
+		while(start < url.length() && url.charAt(start) == '/')
+			start++;
+		return url.substring(start);
+	}
+}
@@ -0,0 +1,160 @@
+package org.lukosan.salix.fs;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Lists the files below a folder, each sub-folder read as its own fork-join task when the walk is started on a
+ * fork-join pool of its own, and one after another on the calling thread otherwise; the blocking reads are never put
+ * on the common pool. Every entry's attributes are read once, the glob is matched against file names as they're read,
+ * and nothing deeper than the depth limit is opened.
+ * Keys come back as {@link NixFsClient#listFilesInSubFolders(String...)} has always given them, "/" then the path
+ * from the folder with a leading "/".
+ */
+class FsWalker extends RecursiveTask<List<String>> {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Log logger = LogFactory.getLog(FsWalker.class);
+
+	private final Path folder;
+	private final String prefix;
+	private final int depth;
+	private final PathMatcher matcher;
+
+	private FsWalker(Path folder, String prefix, int depth, PathMatcher matcher) {
+		this.folder = folder;
+		this.prefix = prefix;
+		this.depth = depth;
+		this.matcher = matcher;
+	}
+
+	/**
+	 * @param maxDepth 1 for the folder's own files only
+	 * @param glob matched against file names, may be null
+	 */
+	public static List<String> walk(Path folder, int maxDepth, String glob) {
+		FsWalker walker = new FsWalker(folder, "//", maxDepth, matcher(glob));
+		// a common pool worker, e.g. running a parallel stream or an async stage, counts as no pool
+		ForkJoinPool pool = ForkJoinTask.getPool();
+		return null != pool && pool != ForkJoinPool.commonPool() ? walker.invoke() : walker.walk();
+	}
+
+	/**
+	 * Runs the listing on the pool, so any walk it makes forks there; on the calling thread when there's no pool.
+	 */
+	static List<String> on(ForkJoinPool pool, Supplier<List<String>> listing) {
+		if(null == pool || ForkJoinTask.getPool() == pool)
+			return listing.get();
+		try {
+			return pool.submit(listing::get).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Collections.emptyList();
+		} catch (ExecutionException e) {
+			logger.error(e.getCause());
+			return Collections.emptyList();
+		}
+	}
+
+	@Override
+	protected List<String> compute() {
+		List<String> keys = new ArrayList<String>();
+		List<FsWalker> children = new ArrayList<FsWalker>();
+		if(!read(keys, children))
+			return keys;
+		invokeAll(children);
+		for(FsWalker child : children)
+			keys.addAll(child.join());
+		return keys;
+	}
+
+	private List<String> walk() {
+		List<String> keys = new ArrayList<String>();
+		List<FsWalker> children = new ArrayList<FsWalker>();
+		if(!read(keys, children))
+			return keys;
+		for(FsWalker child : children)
+			keys.addAll(child.walk());
+		return keys;
+	}
+
+	/**
+	 * Adds the folder's matching files to keys and a walker for each sub-folder within the depth to children.
+	 * 
+	 * @return false if the folder couldn't be read
+	 */
+	private boolean read(List<String> keys, List<FsWalker> children) {
+		try (DirectoryStream<Path> entries = Files.newDirectoryStream(folder)) {
+			for(Path entry : entries) {
+				BasicFileAttributes attrs = attributes(entry);
+				if(null == attrs)
+					continue;
+				String name = entry.getFileName().toString();
+				if(attrs.isDirectory()) {
+					if(depth > 1)
+						children.add(new FsWalker(entry, prefix + name + "/", depth - 1, matcher));
+				} else if(attrs.isRegularFile() && !FsPaths.isTemp(name) && (null == matcher || matcher.matches(entry.getFileName()))) {
+					keys.add(prefix + name);
+				}
+			}
+		} catch (IOException e) {
+			logger.info("Error listing files in " + folder);
+			return false;
+		}
+		return true;
+	}
+
+	// as Files.walk: links to files are followed, links to folders are not
+	private static BasicFileAttributes attributes(Path entry) {
+		try {
+			BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			if(!attrs.isSymbolicLink())
+				return attrs;
+			attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+			return attrs.isRegularFile() ? attrs : null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	static PathMatcher matcher(String glob) {
+		return null == glob ? null : FileSystems.getDefault().getPathMatcher("glob:" + glob);
+	}
+
+	/**
+	 * Whether a key, as listed, is within the depth limit and its file name matches.
+	 */
+	static boolean accepts(String key, int maxDepth, PathMatcher matcher) {
+		int start = 0;
+		while(start < key.length() && key.charAt(start) == '/')
+			start++;
+		int depth = 1;
+		int last = start - 1;
+		for(int i = start; i < key.length(); i++) {
+			if(key.charAt(i) == '/') {
+				depth++;
+				last = i;
+			}
+		}
+		return depth <= maxDepth && (null == matcher || matcher.matches(Paths.get(key.substring(last + 1))));
+	}
+}
@@ -0,0 +1,190 @@
+package org.lukosan.salix.fs;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.util.ObjectUtils;
+
+/**
+ * Preloads the templates, small resources and urls of the configured scopes, or all scopes, on a pool of its own so
+ * the first requests after a deploy don't pay the file-system and parse cost. Templates and resources land in the
+ * service's caches. Urls are only read for scopes with a snapshot, to bring its pages in; the url index is loaded
+ * whole at startup anyway, and without either there's nowhere in-process for a url to be kept.
+ *
+ * Warm-up stops early once the time budget runs out or the caches have grown by the memory budget. Either way the
+ * warmer is then ready; with salix.fs.warmup.wait startup itself waits until it is.
+ */
+public class FsWarmer implements Closeable {
+
+	private static final Log logger = LogFactory.getLog(FsWarmer.class);
+
+	@Value("${salix.fs.warmup.scopes:}")
+	private String[] scopes;
+	@Value("${salix.fs.warmup.threads:0}")
+	private int threads;
+	@Value("${salix.fs.warmup.time:60000}")
+	private long timeBudget;
+	@Value("${salix.fs.warmup.memory:33554432}")
+	private long memoryBudget;
+	@Value("${salix.fs.warmup.resource.max:65536}")
+	private long resourceMaxLength;
+	@Value("${salix.fs.warmup.wait:false}")
+	private boolean wait;
+
+	private final FsSalixService service;
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final AtomicInteger completed = new AtomicInteger();
+	private final AtomicInteger skipped = new AtomicInteger();
+	private ExecutorService pool;
+	private volatile int total;
+	private volatile long deadline;
+	private volatile long startSize;
+
+	public FsWarmer(FsSalixService service) {
+		this.service = service;
+	}
+
+	@PostConstruct
+	public void start() {
+		pool = Executors.newFixedThreadPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), r -> {
+			Thread thread = new Thread(r, "salix-fs-warmer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		deadline = System.currentTimeMillis() + timeBudget;
+		startSize = cachedSize();
+		pool.execute(this::warm);
+		if(wait)
+			await(timeBudget);
+	}
+
+	private void warm() {
+		long started = System.currentTimeMillis();
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		try {
+			Collection<String> names = ObjectUtils.isEmpty(scopes) ? service.scopes() : Arrays.asList(scopes);
+			// templates first as every url's view needs one, then resources, then the urls themselves
+			for(String scope : names) {
+				for(String name : service.templateNames(scope))
+					tasks.add(() -> service.template(name, scope));
+				if(null != service.getResourceCache())
+					for(String sourceId : service.sourceIds(scope))
+						tasks.add(() -> warmResource(sourceId, scope));
+				if(service.hasSnapshot(scope))
+					for(String url : service.urls(scope))
+						tasks.add(() -> service.url(url, scope));
+			}
+		} catch (RuntimeException e) {
+			logger.error("Problem listing what to warm up", e);
+		}
+		total = tasks.size();
+		if(logger.isInfoEnabled())
+			logger.info("Warming up " + total + " files of " + (ObjectUtils.isEmpty(scopes) ? "all scopes" : String.join(", ", scopes)));
+		if(total == 0) {
+			finish(started);
+			return;
+		}
+		try {
+			for(Runnable task : tasks)
+				pool.execute(() -> run(task, started));
+		} catch (RejectedExecutionException e) {
+			// closed while starting up
+			done.countDown();
+		}
+	}
+
+	private void warmResource(String sourceId, String scope) {
+		FsSalixResource resource = (FsSalixResource) service.resource(sourceId, scope);
+		if(resource.getContentLength() <= resourceMaxLength)
+			service.cacheResource(sourceId, scope);
+	}
+
+	private void run(Runnable task, long started) {
+		try {
+			if(isOverBudget())
+				skipped.incrementAndGet();
+			else
+				task.run();
+		} catch (RuntimeException e) {
+			logger.error(e);
+		} finally {
+			// counted whatever the task threw, or warm-up would never be ready
+			int count = completed.incrementAndGet();
+			if(count == total)
+				finish(started);
+			else if(logger.isInfoEnabled() && count * 10 / total > (count - 1) * 10 / total)
+				logger.info("Warmed up " + count + " of " + total + " files");
+		}
+	}
+
+	private boolean isOverBudget() {
+		return System.currentTimeMillis() > deadline || cachedSize() - startSize >= memoryBudget;
+	}
+
+	private long cachedSize() {
+		long size = 0;
+		if(null != service.getTemplateCache())
+			size += service.getTemplateCache().getSize();
+		if(null != service.getResourceCache())
+			size += service.getResourceCache().getSize();
+		return size;
+	}
+
+	private void finish(long started) {
+		if(logger.isInfoEnabled())
+			logger.info("Warm-up finished in " + (System.currentTimeMillis() - started) + "ms, caching " + (cachedSize() - startSize) + " bytes"
+					+ (skipped.get() > 0 ? "; " + skipped.get() + " files skipped over the time or memory budget" : ""));
+		done.countDown();
+		pool.shutdown();
+	}
+
+	/**
+	 * True once warm-up has finished, whether or not it got through everything in budget.
+	 */
+	public boolean isReady() {
+		return done.getCount() == 0;
+	}
+
+	/**
+	 * The share of files dealt with so far, from 0 to 1.
+	 */
+	public double getProgress() {
+		if(isReady())
+			return 1.0;
+		return total == 0 ? 0.0 : (double) completed.get() / total;
+	}
+
+	/**
+	 * Waits up to the given time for warm-up to finish, returning whether it has.
+	 */
+	public boolean await(long millis) {
+		try {
+			return done.await(millis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return isReady();
+		}
+	}
+
+	@Override
+	@PreDestroy
+	public void close() {
+		if(null != pool)
+			pool.shutdownNow();
+	}
+}
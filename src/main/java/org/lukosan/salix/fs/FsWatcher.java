@@ -0,0 +1,179 @@
+package org.lukosan.salix.fs;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Watches every folder below the salix root and passes changes on to the registered {@link FsChangeListener}s.
+ * Nothing is watched until the first listener is added.
+ */
+public class FsWatcher implements Closeable {
+
+	private static final Log logger = LogFactory.getLog(FsWatcher.class);
+
+	@Value("${salix.fs.path}")
+	private String rootPath;
+	@Value("${salix.fs.watch.enabled:true}")
+	private boolean enabled = true;
+
+	private final List<FsChangeListener> listeners = new CopyOnWriteArrayList<FsChangeListener>();
+	private final Map<WatchKey, Path> keys = new ConcurrentHashMap<WatchKey, Path>();
+
+	private Path root;
+	private WatchService service;
+	private Thread thread;
+
+	public FsWatcher() {
+		super();
+	}
+
+	public FsWatcher(String rootPath) {
+		this();
+		this.rootPath = rootPath;
+	}
+
+	public synchronized void addListener(FsChangeListener listener) {
+		listeners.add(listener);
+		if(null == thread && enabled)
+			start();
+	}
+
+	public void removeListener(FsChangeListener listener) {
+		listeners.remove(listener);
+	}
+
+	public boolean isWatching() {
+		return null != thread && thread.isAlive();
+	}
+
+	private void start() {
+		try {
+			root = Paths.get(rootPath).toAbsolutePath().normalize();
+			service = root.getFileSystem().newWatchService();
+			register(root, false);
+			thread = new Thread(this::run, "salix-fs-watcher");
+			thread.setDaemon(true);
+			thread.start();
+		} catch (IOException e) {
+			logger.error("Unable to watch " + rootPath, e);
+		}
+	}
+
+	private void register(Path start, boolean fireFiles) throws IOException {
+		Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if(isHidden(dir))
+					return FileVisitResult.SKIP_SUBTREE;
+				keys.put(dir.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				// files can land in a new folder before we get the chance to watch it
+				if(fireFiles)
+					fire(file);
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private void run() {
+		while(!Thread.currentThread().isInterrupted()) {
+			WatchKey key;
+			try {
+				key = service.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+			Path dir = keys.get(key);
+			for(WatchEvent<?> event : key.pollEvents()) {
+				if(event.kind() == OVERFLOW || null == dir) {
+					fire(null, null, null);
+					continue;
+				}
+				Path child = dir.resolve((Path) event.context());
+				if(event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+					try {
+						register(child, true);
+					} catch (IOException e) {
+						logger.error("Unable to watch " + child, e);
+					}
+				}
+				fire(child);
+			}
+			if(!key.reset())
+				keys.remove(key);
+		}
+	}
+
+	private void fire(Path path) {
+		Path relative = root.relativize(path);
+		int count = relative.getNameCount();
+		if(count == 0 || relative.toString().isEmpty() || isHidden(path))
+			return;
+		fire(relative.getName(0).toString(),
+				count > 1 ? relative.getName(1).toString() : null,
+				count > 2 ? relative.subpath(2, count).toString().replace(File.separatorChar, '/') : null);
+	}
+
+	// dot files and folders at the root, such as the change journal, are salix's own and never scopes
+	private boolean isHidden(Path path) {
+		return root.equals(path.getParent()) && path.getFileName().toString().startsWith(".");
+	}
+
+	void fire(String scope, String folder, String key) {
+		for(FsChangeListener listener : listeners) {
+			try {
+				listener.changed(scope, folder, key);
+			} catch (RuntimeException e) {
+				logger.error("Problem notifying " + listener, e);
+			}
+		}
+	}
+
+	@Override
+	@PreDestroy
+	public synchronized void close() {
+		if(null == thread)
+			return;
+		thread.interrupt();
+		try {
+			service.close();
+		} catch (IOException e) {
+			logger.error(e);
+		}
+		thread = null;
+	}
+}
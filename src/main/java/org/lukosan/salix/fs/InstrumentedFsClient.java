@@ -0,0 +1,180 @@
+package org.lukosan.salix.fs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.input.CountingInputStream;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Decorates an {@link FsClient}, recording to a {@link MeterRegistry}:
+ * 
+ * salix.fs.client          -- latency per operation
+ * salix.fs.client.bytes    -- bytes read and written
+ * salix.fs.client.misses   -- lookups that found no file
+ * 
+ * each tagged with the folder (the second path). Tagging with the scope too, and publishing latency histograms, are
+ * opt-in as both multiply the number of time series, the scope without bound.
+ */
+public class InstrumentedFsClient implements FsClient {
+
+	private final FsClient client;
+	private final MeterRegistry registry;
+	private final boolean scopeTags;
+	private final boolean histograms;
+
+	public InstrumentedFsClient(FsClient client, MeterRegistry registry) {
+		this(client, registry, false, false);
+	}
+
+	public InstrumentedFsClient(FsClient client, MeterRegistry registry, boolean scopeTags, boolean histograms) {
+		this.client = client;
+		this.registry = registry;
+		this.scopeTags = scopeTags;
+		this.histograms = histograms;
+	}
+
+	public FsClient getClient() {
+		return client;
+	}
+
+	@Override
+	public boolean putInputStream(InputStream in, String... paths) {
+		CountingInputStream counting = new CountingInputStream(in);
+		boolean written = timer("putInputStream", paths).record(() -> client.putInputStream(counting, paths));
+		if(written)
+			bytes("write", paths).record(counting.getByteCount());
+		return written;
+	}
+
+	@Override
+	public InputStream getInputStream(String... paths) {
+		InputStream stream = timer("getInputStream", paths).record(() -> client.getInputStream(paths));
+		if(null == stream) {
+			miss("getInputStream", paths);
+			return null;
+		}
+		return new CountingInputStream(stream) {
+			@Override
+			public void close() throws IOException {
+				super.close();
+				bytes("read", paths).record(getByteCount());
+			}
+		};
+	}
+
+	/**
+	 * Bytes read through the channel aren't counted; wrapping it would hide the FileChannel that zero-copy transfers rely on.
+	 */
+	@Override
+	public ReadableByteChannel getChannel(String... paths) {
+		ReadableByteChannel channel = timer("getChannel", paths).record(() -> client.getChannel(paths));
+		if(null == channel)
+			miss("getChannel", paths);
+		return channel;
+	}
+
+	@Override
+	public int read(ByteBuffer dst, long position, String... paths) {
+		int read = timer("read", paths).record(() -> client.read(dst, position, paths));
+		if(read > 0)
+			bytes("read", paths).record(read);
+		return read;
+	}
+
+	@Override
+	public ByteBuffer map(String... paths) {
+		ByteBuffer buffer = timer("map", paths).record(() -> client.map(paths));
+		if(null == buffer)
+			miss("map", paths);
+		return buffer;
+	}
+
+	@Override
+	public List<String> listFoldersInFolder(String... paths) {
+		return timer("listFoldersInFolder", paths).record(() -> client.listFoldersInFolder(paths));
+	}
+
+	@Override
+	public List<String> listFilesInFolder(String... paths) {
+		return timer("listFilesInFolder", paths).record(() -> client.listFilesInFolder(paths));
+	}
+
+	@Override
+	public boolean exists(String... paths) {
+		boolean exists = timer("exists", paths).record(() -> client.exists(paths));
+		if(!exists)
+			miss("exists", paths);
+		return exists;
+	}
+
+	@Override
+	public List<String> listFilesInSubFolders(String... paths) {
+		return timer("listFilesInSubFolders", paths).record(() -> client.listFilesInSubFolders(paths));
+	}
+
+	@Override
+	public String contentKey(String... paths) {
+		return client.contentKey(paths);
+	}
+
+	@Override
+	public boolean isWritable(String... paths) {
+		return client.isWritable(paths);
+	}
+
+	@Override
+	public List<String> listFilesInSubFolders(int maxDepth, String glob, String... paths) {
+		return timer("listFilesInSubFolders", paths).record(() -> client.listFilesInSubFolders(maxDepth, glob, paths));
+	}
+
+	@Override
+	public Stream<String> streamFilesInFolder(String... paths) {
+		return timer("streamFilesInFolder", paths).record(() -> client.streamFilesInFolder(paths));
+	}
+
+	@Override
+	public Stream<String> streamFilesInSubFolders(String... paths) {
+		return timer("streamFilesInSubFolders", paths).record(() -> client.streamFilesInSubFolders(paths));
+	}
+
+	@Override
+	public long lastModified(String... paths) {
+		long lastModified = timer("lastModified", paths).record(() -> client.lastModified(paths));
+		if(lastModified == 0L)
+			miss("lastModified", paths);
+		return lastModified;
+	}
+
+	@Override
+	public long length(String... paths) {
+		return timer("length", paths).record(() -> client.length(paths));
+	}
+
+	private Timer timer(String operation, String... paths) {
+		return Timer.builder("salix.fs.client").tags(tags(paths)).tag("operation", operation)
+				.publishPercentileHistogram(histograms).register(registry);
+	}
+
+	private DistributionSummary bytes(String direction, String... paths) {
+		return DistributionSummary.builder("salix.fs.client.bytes").tags(tags(paths)).tag("direction", direction)
+				.baseUnit("bytes").register(registry);
+	}
+
+	private void miss(String operation, String... paths) {
+		registry.counter("salix.fs.client.misses", tags(paths).and("operation", operation)).increment();
+	}
+
+	private Tags tags(String... paths) {
+		Tags tags = Tags.of("folder", paths.length > 2 ? paths[1] : "");
+		return scopeTags ? tags.and("scope", paths.length > 1 ? paths[0] : "") : tags;
+	}
+}
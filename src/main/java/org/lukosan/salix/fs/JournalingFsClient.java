@@ -0,0 +1,108 @@
+package org.lukosan.salix.fs;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Decorates an {@link FsClient}, recording each successful put in the {@link FsJournal}.
+ */
+public class JournalingFsClient implements FsClient {
+
+	private final FsClient client;
+	private final FsJournal journal;
+
+	public JournalingFsClient(FsClient client, FsJournal journal) {
+		this.client = client;
+		this.journal = journal;
+	}
+
+	public FsClient getClient() {
+		return client;
+	}
+
+	@Override
+	public boolean putInputStream(InputStream in, String... paths) {
+		boolean written = client.putInputStream(in, paths);
+		if(written)
+			journal.append(paths);
+		return written;
+	}
+
+	@Override
+	public InputStream getInputStream(String... paths) {
+		return client.getInputStream(paths);
+	}
+
+	@Override
+	public ReadableByteChannel getChannel(String... paths) {
+		return client.getChannel(paths);
+	}
+
+	@Override
+	public int read(ByteBuffer dst, long position, String... paths) {
+		return client.read(dst, position, paths);
+	}
+
+	@Override
+	public ByteBuffer map(String... paths) {
+		return client.map(paths);
+	}
+
+	@Override
+	public List<String> listFoldersInFolder(String... paths) {
+		return client.listFoldersInFolder(paths);
+	}
+
+	@Override
+	public List<String> listFilesInFolder(String... paths) {
+		return client.listFilesInFolder(paths);
+	}
+
+	@Override
+	public boolean exists(String... paths) {
+		return client.exists(paths);
+	}
+
+	@Override
+	public List<String> listFilesInSubFolders(String... paths) {
+		return client.listFilesInSubFolders(paths);
+	}
+
+	@Override
+	public List<String> listFilesInSubFolders(int maxDepth, String glob, String... paths) {
+		return client.listFilesInSubFolders(maxDepth, glob, paths);
+	}
+
+	@Override
+	public Stream<String> streamFilesInFolder(String... paths) {
+		return client.streamFilesInFolder(paths);
+	}
+
+	@Override
+	public Stream<String> streamFilesInSubFolders(String... paths) {
+		return client.streamFilesInSubFolders(paths);
+	}
+
+	@Override
+	public long lastModified(String... paths) {
+		return client.lastModified(paths);
+	}
+
+	@Override
+	public long length(String... paths) {
+		return client.length(paths);
+	}
+
+	@Override
+	public String contentKey(String... paths) {
+		return client.contentKey(paths);
+	}
+
+	@Override
+	public boolean isWritable(String... paths) {
+		return client.isWritable(paths);
+	}
+}
@@ -3,16 +3,24 @@ package org.lukosan.salix.fs;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.filefilter.DirectoryFileFilter;
@@ -27,62 +35,308 @@ public class NixFsClient implements FsClient {
 	
 	@Value("${salix.fs.path}")
 	private String rootPath;
+	@Value("${salix.fs.fsync:false}")
+	private boolean fsync;
+	@Value("${salix.fs.mmap.threshold:1048576}")
+	private long mmapThreshold = 1048576;
+	@Value("${salix.fs.mmap.files:64}")
+	private int mmapFiles = 64;
 	
-	private static final String delimiter = "/";
+	// both made on first use, once the @Value fields are set
+	private volatile FsMappedFiles mappedFiles;
+	private volatile FsPaths fsPaths;
+	
+	public NixFsClient() {
+		super();
+	}
+	
+	public NixFsClient(String rootPath) {
+		this();
+		this.rootPath = rootPath;
+	}
+
+	/**
+	 * For a client made outside Spring, which won't have its settings injected.
+	 */
+	public NixFsClient(String rootPath, boolean fsync, long mmapThreshold, int mmapFiles) {
+		this(rootPath);
+		this.fsync = fsync;
+		this.mmapThreshold = mmapThreshold;
+		this.mmapFiles = mmapFiles;
+	}
+	
+	protected Path resolve(String... paths) {
+		return fsPaths().resolve(paths);
+	}
+
+	protected Path getRoot() {
+		return fsPaths().getRoot();
+	}
+
+	private FsPaths fsPaths() {
+		FsPaths result = fsPaths;
+		if(null == result) {
+			synchronized (this) {
+				if(null == fsPaths)
+					fsPaths = new FsPaths(rootPath);
+				result = fsPaths;
+			}
+		}
+		return result;
+	}
 	
 	@Override
-	public void putInputStream(InputStream in, String... paths) {
-		String path = rootPath + delimiter + FsSalixService.arrayToDelimitedString(paths, delimiter);
+	public boolean putInputStream(InputStream in, String... paths) {
+		Path path = resolve(paths);
+		if(null == path) {
+			IOUtils.closeQuietly(in);
+			return false;
+		}
+		Path temp = null;
+		try {
+			// readers keep seeing the old file until the new one is complete and renamed over it
+			temp = writeTemp(in, path.getParent(), path.getFileName().toString());
+			move(temp, path);
+			return true;
+		} catch (IOException e) {
+			logger.error("Error writing " + path, e);
+			deleteQuietly(temp);
+			return false;
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Writes the stream to a new hidden temp file in the folder, creating the folder if need be.
+	 */
+	protected Path writeTemp(InputStream in, Path folder, String name) throws IOException {
+		Files.createDirectories(folder);
+		Path temp = FsPaths.temp(folder, name);
+		try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+			// through a large direct buffer, not a small heap one, so big uploads take few writes
+			FsChannels.copy(Channels.newChannel(in), out);
+			if(fsync)
+				out.force(true);
+		} catch (IOException e) {
+			deleteQuietly(temp);
+			throw e;
+		}
+		return temp;
+	}
+
+	protected void move(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	protected void deleteQuietly(Path path) {
+		if(null == path)
+			return;
 		try {
-			FileOutputStream out = new FileOutputStream(path);
-			IOUtils.copy(in, out);
+			Files.deleteIfExists(path);
 		} catch (IOException e) {
-			logger.info("Error writing " + path);
+			logger.error("Error deleting " + path, e);
 		}
 	}
 
 	@Override
 	public InputStream getInputStream(String... paths) {
-		String path = rootPath + delimiter + FsSalixService.arrayToDelimitedString(paths, delimiter);
+		File file = toFile(resolve(paths));
+		if(null == file)
+			return null;
 		try {
-			return new FileInputStream(path);
+			return new FileInputStream(file);
 		} catch (FileNotFoundException e) {
+			// gone since we looked
+			logger.info("Error reading " + file);
+		}
+		return null;
+	}
+
+	// the file, if it's there, found without the cost of an exception when it isn't
+	private File toFile(Path path) {
+		if(null == path)
+			return null;
+		File file = path.toFile();
+		return file.isFile() ? file : null;
+	}
+
+	@Override
+	public ReadableByteChannel getChannel(String... paths) {
+		File file = toFile(resolve(paths));
+		if(null == file)
+			return null;
+		try {
+			return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		} catch (IOException e) {
+			logger.info("Error reading " + file);
+		}
+		return null;
+	}
+
+	@Override
+	public int read(ByteBuffer dst, long position, String... paths) {
+		Path path = resolve(paths);
+		if(null == toFile(path))
+			return -1;
+		ByteBuffer mapped = mappedFiles().get(path);
+		if(null != mapped) {
+			if(position >= mapped.limit())
+				return -1;
+			ByteBuffer src = mapped.duplicate();
+			int count = (int) Math.min(src.limit() - position, dst.remaining());
+			src.limit((int) position + count).position((int) position);
+			dst.put(src);
+			return count;
+		}
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return channel.read(dst, position);
+		} catch (NoSuchFileException e) {
 			logger.info("Error reading " + path);
+		} catch (IOException e) {
+			logger.error("Error reading " + path, e);
+		}
+		return -1;
+	}
+
+	@Override
+	public ByteBuffer map(String... paths) {
+		File file = toFile(resolve(paths));
+		if(null == file)
+			return null;
+		Path path = file.toPath();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if(channel.size() > Integer.MAX_VALUE)
+				return null;
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			logger.error("Error mapping " + path, e);
 		}
 		return null;
 	}
 
+	private FsMappedFiles mappedFiles() {
+		FsMappedFiles result = mappedFiles;
+		if(null == result) {
+			synchronized (this) {
+				if(null == mappedFiles)
+					mappedFiles = new FsMappedFiles(mmapThreshold, mmapFiles);
+				result = mappedFiles;
+			}
+		}
+		return result;
+	}
+
 	@Override
 	public List<String> listFoldersInFolder(String... paths) {
-		String path = rootPath + delimiter + FsSalixService.arrayToDelimitedString(paths, delimiter);
-		if(new File(path).exists())
-			return Arrays.asList(new File(path).list(DirectoryFileFilter.DIRECTORY));
-		return Collections.emptyList();
+		return list(resolve(paths), DirectoryFileFilter.DIRECTORY);
 	}
 
 	@Override
 	public List<String> listFilesInFolder(String... paths) {
-		String path = rootPath + delimiter + FsSalixService.arrayToDelimitedString(paths, delimiter);
-		if(new File(path).exists())
-			return Arrays.asList(new File(path).list(FileFileFilter.FILE));
-		return Collections.emptyList();
+		return list(resolve(paths), (folder, name) -> !FsPaths.isTemp(name) && FileFileFilter.FILE.accept(folder, name));
+	}
+
+	private List<String> list(Path path, FilenameFilter filter) {
+		// null when it isn't a folder, no need to ask first
+		String[] names = null == path ? null : path.toFile().list(filter);
+		return null == names ? Collections.<String>emptyList() : Arrays.asList(names);
 	}
 
 	@Override
 	public boolean exists(String... paths) {
-		String path = rootPath + delimiter + FsSalixService.arrayToDelimitedString(paths, delimiter);
-		return new File(path).exists();
+		Path path = resolve(paths);
+		return null != path && path.toFile().exists();
 	}
 
 	@Override
 	public List<String> listFilesInSubFolders(String... paths) {
-		String fsPath = rootPath + delimiter + FsSalixService.arrayToDelimitedString(paths, delimiter);
-		Path path = Paths.get(fsPath);
+		return listFilesInSubFolders(Integer.MAX_VALUE, null, paths);
+	}
+
+	@Override
+	public List<String> listFilesInSubFolders(int maxDepth, String glob, String... paths) {
+		Path path = resolve(paths);
+		if(null == path || !path.toFile().isDirectory())
+			return Collections.emptyList();
+		return FsWalker.walk(path, maxDepth, glob);
+	}
+
+	@Override
+	public long lastModified(String... paths) {
+		Path path = resolve(paths);
+		return null == path ? 0L : path.toFile().lastModified();
+	}
+
+	@Override
+	public long length(String... paths) {
+		Path path = resolve(paths);
+		return null == path ? 0L : path.toFile().length();
+	}
+
+	/**
+	 * The file's inode with its size and time, so hard-linked paths share a key and a replaced file doesn't.
+	 */
+	@Override
+	public String contentKey(String... paths) {
+		Path path = resolve(paths);
+		if(null == toFile(path))
+			return null;
+		try {
+			BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+			Object fileKey = attrs.fileKey();
+			return null == fileKey ? null : fileKey + ":" + attrs.size() + ":" + attrs.lastModifiedTime().toMillis();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Inside the root, and the nearest folder that already exists on the way to the file can be written; the file is
+	 * replaced by a rename, so its own permissions don't matter.
+	 */
+	@Override
+	public boolean isWritable(String... paths) {
+		Path path = resolve(paths);
+		if(null == path)
+			return false;
+		for(Path folder = path.getParent(); null != folder; folder = folder.getParent())
+			if(Files.exists(folder))
+				return Files.isDirectory(folder) && Files.isWritable(folder);
+		return false;
+	}
+
+	@Override
+	public Stream<String> streamFilesInFolder(String... paths) {
+		Path path = resolve(paths);
+		if(null == path || !path.toFile().isDirectory())
+			return Stream.empty();
+		try {
+			return Files.list(path).filter(Files::isRegularFile).map(t -> t.getFileName().toString()).filter(name -> !FsPaths.isTemp(name));
+		} catch (IOException e) {
+			logger.info("Error listing files in folder " + path);
+		}
+		return Stream.empty();
+	}
+
+	@Override
+	public Stream<String> streamFilesInSubFolders(String... paths) {
+		Path path = resolve(paths);
+		if(null == path || !path.toFile().isDirectory())
+			return Stream.empty();
+		int length = path.toString().length();
 		try {
-			return Files.walk(path).filter(Files::isRegularFile).map(t -> "/" + t.toString().substring(fsPath.length())).collect(Collectors.toList());
+			return Files.walk(path).filter(t -> Files.isRegularFile(t) && !FsPaths.isTemp(t.getFileName().toString()))
+					.map(t -> "/" + t.toString().substring(length));
 		} catch (IOException e) {
 			logger.info("Error listing files in subfolder " + path);
 		}
-		return Collections.emptyList();
+		return Stream.empty();
 	}
-}
+}
\ No newline at end of file
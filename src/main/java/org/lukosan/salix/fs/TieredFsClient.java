@@ -0,0 +1,427 @@
+package org.lukosan.salix.fs;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Decorates a slow {@link FsClient}, typically one over a shared network mount, with a local-disk tier. Files read
+ * through it are copied into the local folder and served from there, least-recently-used files being deleted to keep
+ * the local copies within the size cap. Each copy is trusted for the revalidation interval, after which the remote
+ * file's time and size are checked again; listings are held for the same interval. Puts go straight through to the
+ * remote client and drop the local copy.
+ * 
+ * Only one copy of a path is made at a time, readers arriving meanwhile wait for it, and a put waits for it before
+ * dropping it, so a copy of what was there before the put never outlives it. A copy is trusted from when the remote
+ * file was looked at, not from when the copy finished.
+ * 
+ * Registered with the {@link FsWatcher}, changes it hears of, including other nodes' writes from the
+ * {@link FsJournal}, drop the copies and listings they touch, so the tier needn't wait out its interval to see them.
+ * 
+ * Local copies carry the remote file's time, so they're picked up again after a restart and revalidated on first use.
+ */
+public class TieredFsClient implements FsClient, FsChangeListener {
+
+	private static final Log logger = LogFactory.getLog(TieredFsClient.class);
+
+	private static final int MAX_LISTINGS = 1024;
+
+	private final FsClient client;
+	private final FsPaths local;
+	private final long maxSize;
+	private final long revalidateMillis;
+	private final Map<Path, Copy> copies = new LinkedHashMap<Path, Copy>(16, 0.75f, true);
+	// the copies being made, each completing with the local path or null
+	private final ConcurrentMap<Path, CompletableFuture<Path>> copying = new ConcurrentHashMap<Path, CompletableFuture<Path>>();
+	private final Map<String, Listing> listings = new LinkedHashMap<String, Listing>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Listing> eldest) {
+			return size() > MAX_LISTINGS;
+		}
+	};
+	private long size;
+
+	/**
+	 * @param client the remote tier
+	 * @param localPath the folder for local copies, given over entirely to them
+	 */
+	public TieredFsClient(FsClient client, String localPath, long maxSize, long revalidateMillis) {
+		this.client = client;
+		this.local = new FsPaths(localPath);
+		this.maxSize = maxSize;
+		this.revalidateMillis = revalidateMillis;
+		load();
+	}
+
+	public FsClient getClient() {
+		return client;
+	}
+
+	public long getSize() {
+		synchronized (copies) {
+			return size;
+		}
+	}
+
+	// pick up the copies left from before, to be revalidated when next used
+	private void load() {
+		Path root = local.getRoot();
+		try {
+			Files.createDirectories(root);
+			Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					if(FsPaths.isTemp(file.getFileName().toString()))
+						Files.deleteIfExists(file);
+					else
+						add(file, new Copy(attrs.lastModifiedTime().toMillis(), attrs.size(), 0L));
+					return FileVisitResult.CONTINUE;
+				}
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			logger.error("Unable to use " + root + " for local copies", e);
+		}
+	}
+
+	/**
+	 * The local copy of the remote file, made or refreshed as need be; null if there's no remote file or it can't be
+	 * copied, in which case the remote client should be asked directly.
+	 */
+	private Path copy(String... paths) {
+		Path path = local.resolve(paths);
+		if(null == path)
+			return null;
+		if(null != current(path, paths))
+			return path;
+		CompletableFuture<Path> mine = new CompletableFuture<Path>();
+		CompletableFuture<Path> theirs = copying.putIfAbsent(path, mine);
+		if(null != theirs)
+			return theirs.join();
+		Path copied = null;
+		try {
+			// another reader may have finished a copy since we looked
+			copied = null != current(path, paths) ? path : copy(path, paths);
+		} finally {
+			copying.remove(path, mine);
+			mine.complete(copied);
+		}
+		return copied;
+	}
+
+	private Path copy(Path path, String... paths) {
+		// before the remote file is looked at, so the copy is revalidated no later than anything read after it
+		long checked = System.currentTimeMillis();
+		long lastModified = client.lastModified(paths);
+		long length = client.length(paths);
+		if(lastModified == 0L || length > maxSize)
+			return null;
+		InputStream in = client.getInputStream(paths);
+		if(null == in)
+			return null;
+		Path temp = null;
+		try {
+			Files.createDirectories(path.getParent());
+			temp = FsPaths.temp(path.getParent(), path.getFileName().toString());
+			try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+				FsChannels.copy(Channels.newChannel(in), out);
+			}
+			Files.setLastModifiedTime(temp, FileTime.fromMillis(lastModified));
+			try {
+				Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+			add(path, new Copy(lastModified, Files.size(path), checked));
+			return path;
+		} catch (IOException e) {
+			logger.error("Error copying " + path, e);
+			if(null != temp)
+				temp.toFile().delete();
+			return null;
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				logger.error(e);
+			}
+		}
+	}
+
+	// the copy if it's still good, checking with the remote client once the interval is up
+	private Copy current(Path path, String... paths) {
+		Copy copy;
+		synchronized (copies) {
+			copy = copies.get(path);
+		}
+		if(null == copy)
+			return null;
+		long now = System.currentTimeMillis();
+		if(now - copy.checked < revalidateMillis)
+			return copy;
+		if(client.lastModified(paths) == copy.lastModified && client.length(paths) == copy.length) {
+			copy.checked = now;
+			return copy;
+		}
+		remove(path);
+		return null;
+	}
+
+	private void add(Path path, Copy copy) {
+		synchronized (copies) {
+			Copy previous = copies.put(path, copy);
+			if(null != previous)
+				size -= previous.length;
+			size += copy.length;
+			Iterator<Map.Entry<Path, Copy>> eldest = copies.entrySet().iterator();
+			while(size > maxSize && eldest.hasNext()) {
+				Map.Entry<Path, Copy> entry = eldest.next();
+				if(entry.getKey().equals(path))
+					continue;
+				size -= entry.getValue().length;
+				eldest.remove();
+				entry.getKey().toFile().delete();
+			}
+		}
+	}
+
+	private void remove(Path path) {
+		synchronized (copies) {
+			Copy copy = copies.remove(path);
+			if(null != copy)
+				size -= copy.length;
+			path.toFile().delete();
+		}
+	}
+
+	@Override
+	public boolean putInputStream(InputStream in, String... paths) {
+		boolean written = client.putInputStream(in, paths);
+		Path path = local.resolve(paths);
+		if(null != path)
+			drop(path);
+		synchronized (listings) {
+			listings.clear();
+		}
+		return written;
+	}
+
+	@Override
+	public void changed(String scope, String folder, String key) {
+		synchronized (listings) {
+			listings.clear();
+		}
+		if(null != key) {
+			Path path = local.resolve(scope, folder, key);
+			if(null != path)
+				drop(path);
+			return;
+		}
+		Path below = null == scope ? local.getRoot() : null == folder ? local.resolve(scope) : local.resolve(scope, folder);
+		if(null == below)
+			return;
+		for(Map.Entry<Path, CompletableFuture<Path>> pending : copying.entrySet())
+			if(pending.getKey().startsWith(below))
+				pending.getValue().join();
+		// revalidated when next used rather than deleted, a whole scope's copies may well be unchanged
+		synchronized (copies) {
+			for(Map.Entry<Path, Copy> copy : copies.entrySet())
+				if(copy.getKey().startsWith(below))
+					copy.getValue().checked = 0L;
+		}
+	}
+
+	// a copy under way may have read the file from before the change, so it's dropped once it's made
+	private void drop(Path path) {
+		CompletableFuture<Path> pending = copying.get(path);
+		if(null != pending)
+			pending.join();
+		remove(path);
+	}
+
+	@Override
+	public InputStream getInputStream(String... paths) {
+		Path path = copy(paths);
+		if(null == path)
+			return client.getInputStream(paths);
+		try {
+			return new FileInputStream(path.toFile());
+		} catch (IOException e) {
+			// evicted since
+			return client.getInputStream(paths);
+		}
+	}
+
+	@Override
+	public ReadableByteChannel getChannel(String... paths) {
+		Path path = copy(paths);
+		if(null == path)
+			return client.getChannel(paths);
+		try {
+			return FileChannel.open(path, StandardOpenOption.READ);
+		} catch (IOException e) {
+			return client.getChannel(paths);
+		}
+	}
+
+	@Override
+	public int read(ByteBuffer dst, long position, String... paths) {
+		Path path = copy(paths);
+		if(null == path)
+			return client.read(dst, position, paths);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return channel.read(dst, position);
+		} catch (IOException e) {
+			return client.read(dst, position, paths);
+		}
+	}
+
+	@Override
+	public ByteBuffer map(String... paths) {
+		Path path = copy(paths);
+		if(null == path)
+			return client.map(paths);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return channel.size() > Integer.MAX_VALUE ? null : channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException e) {
+			return client.map(paths);
+		}
+	}
+
+	@Override
+	public boolean exists(String... paths) {
+		Copy copy = fresh(paths);
+		return null != copy || client.exists(paths);
+	}
+
+	@Override
+	public long lastModified(String... paths) {
+		Copy copy = fresh(paths);
+		return null != copy ? copy.lastModified : client.lastModified(paths);
+	}
+
+	@Override
+	public long length(String... paths) {
+		Copy copy = fresh(paths);
+		return null != copy ? copy.length : client.length(paths);
+	}
+
+	// the copy only if it's within its interval; stats aren't worth a revalidation of their own
+	private Copy fresh(String... paths) {
+		Path path = local.resolve(paths);
+		if(null == path)
+			return null;
+		synchronized (copies) {
+			Copy copy = copies.get(path);
+			return null != copy && System.currentTimeMillis() - copy.checked < revalidateMillis ? copy : null;
+		}
+	}
+
+	@Override
+	public String contentKey(String... paths) {
+		return client.contentKey(paths);
+	}
+
+	@Override
+	public boolean isWritable(String... paths) {
+		return client.isWritable(paths);
+	}
+
+	@Override
+	public List<String> listFoldersInFolder(String... paths) {
+		return listing("folders", paths, () -> client.listFoldersInFolder(paths));
+	}
+
+	@Override
+	public List<String> listFilesInFolder(String... paths) {
+		return listing("files", paths, () -> client.listFilesInFolder(paths));
+	}
+
+	@Override
+	public List<String> listFilesInSubFolders(String... paths) {
+		return listing("tree", paths, () -> client.listFilesInSubFolders(paths));
+	}
+
+	@Override
+	public List<String> listFilesInSubFolders(int maxDepth, String glob, String... paths) {
+		return listing("tree:" + maxDepth + ":" + glob, paths, () -> client.listFilesInSubFolders(maxDepth, glob, paths));
+	}
+
+	@Override
+	public Stream<String> streamFilesInFolder(String... paths) {
+		return listFilesInFolder(paths).stream();
+	}
+
+	@Override
+	public Stream<String> streamFilesInSubFolders(String... paths) {
+		return listFilesInSubFolders(paths).stream();
+	}
+
+	private List<String> listing(String kind, String[] paths, Supplier<List<String>> lister) {
+		String key = kind + "\0" + Arrays.toString(paths);
+		long now = System.currentTimeMillis();
+		synchronized (listings) {
+			Listing listing = listings.get(key);
+			if(null != listing && now - listing.checked < revalidateMillis)
+				return listing.names;
+		}
+		List<String> names = Collections.unmodifiableList(lister.get());
+		synchronized (listings) {
+			listings.put(key, new Listing(names, now));
+		}
+		return names;
+	}
+
+	private static class Copy {
+		private final long lastModified;
+		private final long length;
+		private volatile long checked;
+
+		private Copy(long lastModified, long length, long checked) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.checked = checked;
+		}
+	}
+
+	private static class Listing {
+		private final List<String> names;
+		private final long checked;
+
+		private Listing(List<String> names, long checked) {
+			this.names = names;
+			this.checked = checked;
+		}
+	}
+}
@@ -0,0 +1,391 @@
+package org.lukosan.salix.fs;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Decorates an {@link FsClient} so puts are queued and written later, in batches, on a single writer thread. A put to
+ * a path that is still queued replaces the queued bytes, so a run of saves to the same file costs one write. Reads,
+ * listings and stats see queued files as though they were already written.
+ * 
+ * The queue holds at most capacity files; puts wait for the writer when it's full. Closing writes out everything
+ * still queued, as does a shutdown hook should the JVM exit without the client being closed. A put returning true
+ * means it was queued, not that it's on disk; call {@link #flush()} where that matters.
+ * 
+ * A put the underlying client says it can't write is refused straight away, and a queued write that keeps failing is
+ * dropped after the given number of attempts, logged and counted. Streams longer than maxLength aren't held in memory
+ * but written through on the caller's thread.
+ */
+public class WriteBehindFsClient implements FsClient, Closeable {
+
+	private static final Log logger = LogFactory.getLog(WriteBehindFsClient.class);
+
+	private final FsClient client;
+	private final long delayMillis;
+	private final int batchSize;
+	private final int capacity;
+	private final int maxLength;
+	private final int attempts;
+	private final AtomicLong failures = new AtomicLong();
+	private final Map<String, Pending> pending = new ConcurrentHashMap<String, Pending>();
+	private final Object flushLock = new Object();
+	private final Thread thread;
+	private final Thread hook;
+	private volatile boolean closed;
+
+	public WriteBehindFsClient(FsClient client, long delayMillis, int batchSize, int capacity, int maxLength, int attempts) {
+		this.client = client;
+		this.delayMillis = delayMillis;
+		this.batchSize = batchSize;
+		this.capacity = capacity;
+		this.maxLength = maxLength;
+		this.attempts = attempts;
+		thread = new Thread(this::run, "salix-fs-write-behind");
+		thread.setDaemon(true);
+		thread.start();
+		// the writer is a daemon, so nothing else stops an exit losing what's queued
+		hook = new Thread(this::flush, "salix-fs-write-behind-flush");
+		Runtime.getRuntime().addShutdownHook(hook);
+	}
+
+	public FsClient getClient() {
+		return client;
+	}
+
+	@Override
+	public boolean putInputStream(InputStream in, String... paths) {
+		if(closed)
+			return client.putInputStream(in, paths);
+		if(!client.isWritable(paths)) {
+			logger.error("Unable to write " + key(paths));
+			IOUtils.closeQuietly(in);
+			return false;
+		}
+		byte[] bytes;
+		try {
+			bytes = read(in, Math.min(maxLength, Integer.MAX_VALUE - 1) + 1);
+		} catch (IOException e) {
+			logger.error(e);
+			IOUtils.closeQuietly(in);
+			return false;
+		}
+		String key = key(paths);
+		if(bytes.length > maxLength) {
+			// too big to hold, so it goes straight through, after anything queued for the path that it replaces
+			synchronized (flushLock) {
+				pending.remove(key);
+				return client.putInputStream(new SequenceInputStream(new ByteArrayInputStream(bytes), in), paths);
+			}
+		}
+		IOUtils.closeQuietly(in);
+		synchronized (pending) {
+			while(!pending.containsKey(key) && pending.size() >= capacity && !closed) {
+				try {
+					pending.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			pending.put(key, new Pending(paths, bytes));
+			pending.notifyAll();
+		}
+		return true;
+	}
+
+	// up to limit bytes, fewer only if the stream ends first
+	private static byte[] read(InputStream in, int limit) throws IOException {
+		byte[] bytes = new byte[Math.min(limit, Math.max(in.available(), 8192))];
+		int length = 0;
+		while(length < limit) {
+			if(length == bytes.length)
+				bytes = Arrays.copyOf(bytes, (int) Math.min(limit, bytes.length * 2L));
+			int read = in.read(bytes, length, bytes.length - length);
+			if(read < 0)
+				break;
+			length += read;
+		}
+		return length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
+	}
+
+	/**
+	 * Whether the file has a put still waiting to be written.
+	 */
+	public boolean isPending(String... paths) {
+		return !pending.isEmpty() && pending.containsKey(key(paths));
+	}
+
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * The number of queued writes given up on.
+	 */
+	public long getFailureCount() {
+		return failures.get();
+	}
+
+	private void run() {
+		while(!closed) {
+			try {
+				synchronized (pending) {
+					while(pending.isEmpty() && !closed)
+						pending.wait();
+				}
+				// let repeated saves gather, unless a full batch is already waiting
+				long until = System.currentTimeMillis() + delayMillis;
+				synchronized (pending) {
+					long wait;
+					while(pending.size() < batchSize && !closed && (wait = until - System.currentTimeMillis()) > 0)
+						pending.wait(wait);
+				}
+			} catch (InterruptedException e) {
+				break;
+			}
+			flush(batchSize);
+		}
+	}
+
+	/**
+	 * Writes out everything queued, returning once it's on disk.
+	 */
+	public void flush() {
+		while(!pending.isEmpty())
+			if(flush(Integer.MAX_VALUE) == 0)
+				break;
+	}
+
+	// the number written
+	private int flush(int max) {
+		synchronized (flushLock) {
+			List<Map.Entry<String, Pending>> batch = new ArrayList<Map.Entry<String, Pending>>();
+			Iterator<Map.Entry<String, Pending>> iterator = pending.entrySet().iterator();
+			while(batch.size() < max && iterator.hasNext())
+				batch.add(iterator.next());
+			int written = 0;
+			for(Map.Entry<String, Pending> entry : batch) {
+				Pending write = entry.getValue();
+				if(client.putInputStream(new ByteArrayInputStream(write.bytes), write.paths)) {
+					written++;
+					// unless it was put again while we were writing
+					pending.remove(entry.getKey(), write);
+				} else if(++write.attempts >= attempts) {
+					// and stop reads answering with bytes that will never be on disk
+					if(pending.remove(entry.getKey(), write)) {
+						failures.incrementAndGet();
+						logger.error("Gave up writing " + entry.getKey() + " after " + write.attempts + " attempts");
+					}
+				} else {
+					logger.warn("Error writing " + entry.getKey() + ", will retry");
+				}
+			}
+			synchronized (pending) {
+				pending.notifyAll();
+			}
+			return written;
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			Runtime.getRuntime().removeShutdownHook(hook);
+		} catch (IllegalStateException e) {
+			// already shutting down, and the hook may be what's closing us
+		}
+		synchronized (pending) {
+			closed = true;
+			pending.notifyAll();
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+		if(!pending.isEmpty())
+			logger.error("Unable to write " + pending.keySet());
+	}
+
+	private Pending get(String... paths) {
+		return pending.isEmpty() ? null : pending.get(key(paths));
+	}
+
+	@Override
+	public InputStream getInputStream(String... paths) {
+		Pending write = get(paths);
+		return null != write ? new ByteArrayInputStream(write.bytes) : client.getInputStream(paths);
+	}
+
+	@Override
+	public ReadableByteChannel getChannel(String... paths) {
+		Pending write = get(paths);
+		return null != write ? Channels.newChannel(new ByteArrayInputStream(write.bytes)) : client.getChannel(paths);
+	}
+
+	@Override
+	public int read(ByteBuffer dst, long position, String... paths) {
+		Pending write = get(paths);
+		if(null == write)
+			return client.read(dst, position, paths);
+		if(position >= write.bytes.length)
+			return -1;
+		int count = (int) Math.min(write.bytes.length - position, dst.remaining());
+		dst.put(write.bytes, (int) position, count);
+		return count;
+	}
+
+	@Override
+	public ByteBuffer map(String... paths) {
+		Pending write = get(paths);
+		return null != write ? ByteBuffer.wrap(write.bytes).asReadOnlyBuffer() : client.map(paths);
+	}
+
+	@Override
+	public List<String> listFoldersInFolder(String... paths) {
+		List<String> folders = client.listFoldersInFolder(paths);
+		if(pending.isEmpty())
+			return folders;
+		Set<String> names = new LinkedHashSet<String>(folders);
+		for(String relative : pendingIn(paths)) {
+			int slash = relative.indexOf('/');
+			if(slash > 0)
+				names.add(relative.substring(0, slash));
+		}
+		return new ArrayList<String>(names);
+	}
+
+	@Override
+	public List<String> listFilesInFolder(String... paths) {
+		List<String> files = client.listFilesInFolder(paths);
+		if(pending.isEmpty())
+			return files;
+		Set<String> names = new LinkedHashSet<String>(files);
+		for(String relative : pendingIn(paths))
+			if(relative.indexOf('/') < 0)
+				names.add(relative);
+		return new ArrayList<String>(names);
+	}
+
+	@Override
+	public boolean exists(String... paths) {
+		return null != get(paths) || client.exists(paths);
+	}
+
+	@Override
+	public List<String> listFilesInSubFolders(String... paths) {
+		List<String> files = client.listFilesInSubFolders(paths);
+		if(pending.isEmpty())
+			return files;
+		Set<String> keys = new LinkedHashSet<String>(files);
+		// keys as the file-system client gives them
+		for(String relative : pendingIn(paths))
+			keys.add("//" + relative);
+		return new ArrayList<String>(keys);
+	}
+
+	@Override
+	public List<String> listFilesInSubFolders(int maxDepth, String glob, String... paths) {
+		if(pending.isEmpty())
+			return client.listFilesInSubFolders(maxDepth, glob, paths);
+		return FsClient.super.listFilesInSubFolders(maxDepth, glob, paths);
+	}
+
+	@Override
+	public Stream<String> streamFilesInFolder(String... paths) {
+		if(pending.isEmpty())
+			return client.streamFilesInFolder(paths);
+		return listFilesInFolder(paths).stream();
+	}
+
+	@Override
+	public Stream<String> streamFilesInSubFolders(String... paths) {
+		if(pending.isEmpty())
+			return client.streamFilesInSubFolders(paths);
+		return listFilesInSubFolders(paths).stream();
+	}
+
+	@Override
+	public long lastModified(String... paths) {
+		Pending write = get(paths);
+		return null != write ? write.time : client.lastModified(paths);
+	}
+
+	@Override
+	public long length(String... paths) {
+		Pending write = get(paths);
+		return null != write ? write.bytes.length : client.length(paths);
+	}
+
+	@Override
+	public String contentKey(String... paths) {
+		return null != get(paths) ? null : client.contentKey(paths);
+	}
+
+	@Override
+	public boolean isWritable(String... paths) {
+		return client.isWritable(paths);
+	}
+
+	// queued files below the folder, relative to it
+	private List<String> pendingIn(String... paths) {
+		String prefix = key(paths);
+		if(!prefix.isEmpty())
+			prefix += "/";
+		List<String> relatives = new ArrayList<String>();
+		for(String key : pending.keySet())
+			if(key.startsWith(prefix))
+				relatives.add(key.substring(prefix.length()));
+		return relatives;
+	}
+
+	// the same key however the paths are split or slashed
+	private static String key(String... paths) {
+		StringBuilder key = new StringBuilder();
+		for(String path : paths) {
+			if(null == path)
+				continue;
+			for(String name : path.split("/")) {
+				if(name.isEmpty())
+					continue;
+				if(key.length() > 0)
+					key.append('/');
+				key.append(name);
+			}
+		}
+		return key.toString();
+	}
+
+	private static class Pending {
+		private final String[] paths;
+		private final byte[] bytes;
+		private final long time = System.currentTimeMillis();
+		private int attempts;
+
+		private Pending(String[] paths, byte[] bytes) {
+			this.paths = paths;
+			this.bytes = bytes;
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package org.lukosan.salix.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Deduplication over a real folder, which needs hard links and unix attributes.
+ */
+public class DedupFsClientTest {
+
+	private Path root;
+	private DedupFsClient client;
+
+	@Before
+	public void before() throws IOException {
+		root = Files.createTempDirectory("salix-dedup");
+		client = new DedupFsClient(root.toString());
+	}
+
+	@After
+	public void after() throws IOException {
+		FileUtils.deleteDirectory(root.toFile());
+	}
+
+	@Test
+	public void identicalResourcesShareABlob() throws IOException {
+		assertTrue(put("body{}", "one", "resources", "a.css"));
+		assertTrue(put("body{}", "two", "resources", "b.css"));
+		assertEquals(inode(root.resolve("one/resources/a.css")), inode(root.resolve("two/resources/b.css")));
+		assertEquals(1, blobs());
+		assertEquals("body{}", read("two/resources/b.css"));
+	}
+
+	@Test
+	public void otherFoldersAreWrittenPlainly() throws IOException {
+		assertTrue(put("view: page", "one", "urls", "about.yml"));
+		assertEquals(1, links(root.resolve("one/urls/about.yml")));
+		assertEquals(0, blobs());
+	}
+
+	@Test
+	public void blobsAreReadOnly() throws IOException {
+		put("body{}", "one", "resources", "a.css");
+		assertFalse(Files.getPosixFilePermissions(root.resolve("one/resources/a.css")).contains(PosixFilePermission.OWNER_WRITE));
+		// though the path can still be put again
+		assertTrue(put("p{}", "one", "resources", "a.css"));
+		assertEquals("p{}", read("one/resources/a.css"));
+	}
+
+	@Test
+	public void replacedContentIsCollected() throws IOException {
+		put("body{}", "one", "resources", "a.css");
+		put("p{}", "one", "resources", "a.css");
+		assertEquals(2, blobs());
+		assertEquals(1, client.collectGarbage());
+		assertEquals(1, blobs());
+		assertEquals("p{}", read("one/resources/a.css"));
+		assertEquals(0, client.collectGarbage());
+	}
+
+	@Test
+	public void sharedBlobsLastUntilTheirLastLinkGoes() throws IOException {
+		put("body{}", "one", "resources", "a.css");
+		put("body{}", "two", "resources", "a.css");
+		Files.delete(root.resolve("one/resources/a.css"));
+		assertEquals(0, client.collectGarbage());
+		assertEquals("body{}", read("two/resources/a.css"));
+		FileUtils.deleteDirectory(root.resolve("two").toFile());
+		assertEquals(1, client.collectGarbage());
+		assertEquals(0, blobs());
+	}
+
+	@Test
+	public void aCollectedBlobIsWrittenAfresh() throws IOException {
+		put("body{}", "one", "resources", "a.css");
+		Files.delete(root.resolve("one/resources/a.css"));
+		assertEquals(1, client.collectGarbage());
+		put("body{}", "two", "resources", "a.css");
+		assertEquals("body{}", read("two/resources/a.css"));
+		assertEquals(1, blobs());
+	}
+
+	@Test
+	public void theBlobFolderIsNotAScope() throws IOException {
+		put("body{}", "one", "resources", "a.css");
+		assertEquals(1, client.listFoldersInFolder("").size());
+		assertEquals("one", client.listFoldersInFolder("").get(0));
+		assertNotEquals(0, client.listFoldersInFolder(".blobs").size());
+	}
+
+	private boolean put(String content, String... paths) {
+		return client.putInputStream(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), paths);
+	}
+
+	private String read(String path) throws IOException {
+		return new String(Files.readAllBytes(root.resolve(path)), StandardCharsets.UTF_8);
+	}
+
+	private long blobs() throws IOException {
+		Path blobs = root.resolve(".blobs");
+		if(!Files.isDirectory(blobs))
+			return 0;
+		try (Stream<Path> files = Files.walk(blobs)) {
+			return files.filter(Files::isRegularFile).count();
+		}
+	}
+
+	private static Object inode(Path path) throws IOException {
+		return Files.getAttribute(path, "unix:ino");
+	}
+
+	private static int links(Path path) throws IOException {
+		return ((Number) Files.getAttribute(path, "unix:nlink")).intValue();
+	}
+}
@@ -0,0 +1,141 @@
+package org.lukosan.salix.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Two journals over one file standing in for two nodes, tailed by hand rather than on their interval.
+ */
+public class FsJournalTest {
+
+	private Path root;
+	private Path file;
+	private final List<FsWatcher> watchers = new ArrayList<FsWatcher>();
+	private final List<FsJournal> journals = new ArrayList<FsJournal>();
+
+	@Before
+	public void before() throws IOException {
+		root = Files.createTempDirectory("salix-journal");
+		file = root.resolve("journal");
+	}
+
+	@After
+	public void after() throws IOException {
+		journals.forEach(FsJournal::close);
+		watchers.forEach(FsWatcher::close);
+		FileUtils.deleteDirectory(root.toFile());
+	}
+
+	@Test
+	public void otherNodesWritesAreHeard() throws IOException {
+		List<String> heardByOne = new ArrayList<String>();
+		List<String> heardByTwo = new ArrayList<String>();
+		FsJournal one = journal(heardByOne, 1 << 20);
+		FsJournal two = journal(heardByTwo, 1 << 20);
+		one.append("scope", "resources", "images/a.png");
+		two.append("scope/templates/page.html");
+		one.tail();
+		two.tail();
+		assertEquals(Collections.singletonList("scope/templates/page.html"), heardByOne);
+		assertEquals(Collections.singletonList("scope/resources/images/a.png"), heardByTwo);
+		// nothing is heard twice
+		one.tail();
+		two.tail();
+		assertEquals(1, heardByOne.size());
+		assertEquals(1, heardByTwo.size());
+	}
+
+	@Test
+	public void onlyWritesFromNowOnAreHeard() throws IOException {
+		FsJournal one = journal(new ArrayList<String>(), 1 << 20);
+		one.append("scope", "resources", "a.css");
+		List<String> heard = new ArrayList<String>();
+		FsJournal two = journal(heard, 1 << 20);
+		two.tail();
+		assertTrue(heard.isEmpty());
+		one.append("scope", "resources", "b.css");
+		two.tail();
+		assertEquals(Collections.singletonList("scope/resources/b.css"), heard);
+	}
+
+	@Test
+	public void aNewGenerationDropsEverything() throws IOException {
+		FsJournal one = journal(new ArrayList<String>(), 200);
+		List<String> heard = new ArrayList<String>();
+		FsJournal two = journal(heard, 200);
+		one.append("scope", "resources", "a.css");
+		two.tail();
+		for(int i = 0; i < 10; i++)
+			one.append("scope", "resources", "b" + i + ".css");
+		heard.clear();
+		two.tail();
+		// everything dropped first, then whatever the new generation holds
+		assertEquals("*", heard.get(0));
+		assertEquals("scope/resources/b9.css", heard.get(heard.size() - 1));
+		assertTrue(Files.size(file) <= 200 + 100);
+	}
+
+	@Test
+	public void partRecordsWaitForTheirEnd() throws IOException {
+		List<String> heard = new ArrayList<String>();
+		FsJournal one = journal(heard, 1 << 20);
+		one.append("scope", "resources", "a.css");
+		one.tail();
+		long sequence = Files.size(file);
+		write(sequence + "\tother\tscope\tresources\t");
+		one.tail();
+		assertTrue(heard.isEmpty());
+		write("b.css\n");
+		one.tail();
+		assertEquals(Collections.singletonList("scope/resources/b.css"), heard);
+	}
+
+	@Test
+	public void recordsTooLongToReadAreSkipped() throws IOException {
+		List<String> heard = new ArrayList<String>();
+		FsJournal one = journal(heard, 1 << 20);
+		one.append("scope", "resources", "a.css");
+		one.tail();
+		char[] name = new char[200 * 1024];
+		Arrays.fill(name, 'x');
+		write("0\tother\tscope\tresources\t" + new String(name) + "\n");
+		one.tail();
+		// not stuck behind it either
+		write("0\tother\tscope\tresources\tb.css\n");
+		one.tail();
+		assertEquals(Arrays.asList("*", "scope/resources/b.css"), heard);
+	}
+
+	private FsJournal journal(List<String> heard, long maxLength) throws IOException {
+		// watching an empty folder, so all it hears is what the journal fires
+		FsWatcher watcher = new FsWatcher(Files.createTempDirectory(root, "watched").toString());
+		watcher.addListener((scope, folder, key) -> {
+			synchronized (heard) {
+				heard.add(null == scope ? "*" : scope + "/" + folder + "/" + key);
+			}
+		});
+		watchers.add(watcher);
+		FsJournal journal = new FsJournal(file, watcher, maxLength, 60000);
+		journals.add(journal);
+		return journal;
+	}
+
+	private void write(String text) throws IOException {
+		Files.write(file, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+	}
+}
@@ -0,0 +1,128 @@
+package org.lukosan.salix.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.lukosan.salix.SalixConfiguration;
+import org.lukosan.salix.SalixUrl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The JSON and YAML readers, over well-formed files and the ways they go wrong.
+ */
+public class FsReadersTest {
+
+	private final FsReaders readers = new FsReaders(new ObjectMapper());
+
+	@Test
+	public void readsJsonUrls() {
+		SalixUrl url = readers.readUrl(in("{\"scope\":\"s\",\"url\":\"/a\",\"view\":\"page\",\"status\":301,"
+				+ "\"map\":{\"list\":[1,2.5,true,null,\"x\"],\"nested\":{\"k\":\"v\"}}}"), "a.json");
+		assertEquals("s", url.getScope());
+		assertEquals("/a", url.getUrl());
+		assertEquals("page", url.getView());
+		assertEquals(301, url.getStatus());
+		assertEquals(Arrays.asList(1, 2.5d, true, null, "x"), url.getMap().get("list"));
+		assertEquals("v", ((Map<?, ?>) url.getMap().get("nested")).get("k"));
+	}
+
+	@Test
+	public void readsYamlUrls() {
+		SalixUrl url = readers.readUrl(in("scope: s\nurl: /a\nview: page\nstatus: '404'\nmap:\n  k: v\n  list: [1, 2]\n"), "a.yml");
+		assertEquals("s", url.getScope());
+		assertEquals(404, url.getStatus());
+		assertEquals("v", url.getMap().get("k"));
+		assertEquals(Arrays.asList(1, 2), url.getMap().get("list"));
+	}
+
+	@Test
+	public void yamlFilesMayHoldJson() {
+		SalixUrl url = readers.readUrl(in("\ufeff  {\"scope\":\"s\",\"status\":200}"), "a.yml");
+		assertEquals("s", url.getScope());
+		assertEquals(200, url.getStatus());
+	}
+
+	@Test
+	public void yamlFlowMappingsAreNotTakenForJson() {
+		SalixUrl url = readers.readUrl(in("{scope: s, view: page}"), "a.yml");
+		assertEquals("s", url.getScope());
+		assertEquals("page", url.getView());
+	}
+
+	@Test
+	public void readsConfigurations() {
+		SalixConfiguration configuration = readers.readConfiguration(in("{\"scope\":\"s\",\"target\":\"t\",\"map\":{\"k\":\"v\"}}"), ".json");
+		assertEquals("s", configuration.getScope());
+		assertEquals("t", configuration.getTarget());
+		assertEquals("v", configuration.getMap().get("k"));
+		configuration = readers.readConfiguration(in("scope: s\ntarget: t\n"), ".yml");
+		assertEquals("t", configuration.getTarget());
+		assertTrue(configuration.getMap().isEmpty());
+	}
+
+	@Test
+	public void statusesThatArentNumbersAreRefused() {
+		assertNull(readers.readUrl(in("{\"scope\":\"s\",\"status\":\"moved\"}"), "a.json"));
+		assertNull(readers.readUrl(in("scope: s\nstatus: moved\n"), "a.yml"));
+	}
+
+	@Test
+	public void malformedFilesComeBackNull() {
+		List<String> jsons = Arrays.asList("", "{", "{\"scope\":", "{\"map\":[1,2", "[1,2]", "\"s\"", "scope: s");
+		for(String json : jsons)
+			assertNull(json, readers.readUrl(in(json), "a.json"));
+		List<String> yamls = Arrays.asList("", "- a\n- b\n", "scope: [s\n", "just text", "{scope: s");
+		for(String yaml : yamls)
+			assertNull(yaml, readers.readUrl(in(yaml), "a.yml"));
+		assertNull(readers.readUrl(null, "a.json"));
+		assertNull(readers.readConfiguration(in("{"), ".json"));
+		assertNull(readers.readTemplate(in("{")));
+	}
+
+	@Test
+	public void streamsAreClosed() {
+		ClosingInputStream good = new ClosingInputStream("{\"scope\":\"s\"}");
+		ClosingInputStream bad = new ClosingInputStream("{");
+		readers.readUrl(good, "a.json");
+		readers.readUrl(bad, "a.json");
+		assertTrue(good.closed);
+		assertTrue(bad.closed);
+	}
+
+	@Test
+	public void jsonIsToldFromContent() {
+		assertTrue(FsReaders.isJson("a.json", new byte[0]));
+		assertTrue(FsReaders.isJson("a.yml", " \n{".getBytes(StandardCharsets.UTF_8)));
+		assertFalse(FsReaders.isJson("a.yml", "scope: {".getBytes(StandardCharsets.UTF_8)));
+		assertFalse(FsReaders.isJson("a.yml", new byte[0]));
+	}
+
+	private static InputStream in(String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static class ClosingInputStream extends ByteArrayInputStream {
+
+		private boolean closed;
+
+		private ClosingInputStream(String content) {
+			super(content.getBytes(StandardCharsets.UTF_8));
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+}
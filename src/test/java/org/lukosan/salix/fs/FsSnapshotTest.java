@@ -0,0 +1,124 @@
+package org.lukosan.salix.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.lukosan.salix.SalixConfiguration;
+import org.lukosan.salix.SalixUrl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Snapshots written and read back through the binary format.
+ */
+public class FsSnapshotTest {
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	@Test
+	public void urlsAndConfigurationsReadBackAsWritten() throws IOException {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("title", "Caf\u00e9 \u2615");
+		map.put("tags", Arrays.asList("a", "b"));
+		map.put("nested", Collections.singletonMap("n", 1));
+		FsSnapshot.Writer writer = new FsSnapshot.Writer(mapper);
+		writer.url("about", new FsSalixUrl("scope", "/about", 200, "page", map), 1000L);
+		writer.url("old", new FsSalixUrl("scope", "/old", 301, "page", null), 2000L);
+		writer.configuration("site", new FsSalixConfiguration("scope", "site", Collections.<String, Object>singletonMap("theme", "dark")), 3000L);
+		FsSnapshot snapshot = read(writer);
+
+		assertEquals(3, snapshot.size());
+		SalixUrl about = snapshot.url("scope", "about");
+		assertEquals("/about", about.getUrl());
+		assertEquals("page", about.getView());
+		assertEquals(200, about.getStatus());
+		assertEquals(map, about.getMap());
+		SalixUrl old = snapshot.url("scope", "old");
+		assertEquals(301, old.getStatus());
+		assertEquals("page", old.getView());
+		assertNull(old.getMap());
+		SalixConfiguration site = snapshot.configuration("scope", "site");
+		assertEquals("site", site.getTarget());
+		assertEquals("dark", site.getMap().get("theme"));
+		assertNull(snapshot.url("scope", "site"));
+		assertNull(snapshot.configuration("scope", "about"));
+	}
+
+	@Test
+	public void keepsEachSourceTime() throws IOException {
+		FsSnapshot.Writer writer = new FsSnapshot.Writer(mapper);
+		writer.url("a", new FsSalixUrl("scope", "/a", 200, null, null), 1000L);
+		writer.url("b", new FsSalixUrl("scope", "/b", 200, null, null), 2000L);
+		writer.configuration("c", new FsSalixConfiguration("scope", "c", null), 3000L);
+		FsSnapshot snapshot = read(writer);
+		Map<String, Long> urls = new LinkedHashMap<String, Long>();
+		urls.put("a", 1000L);
+		urls.put("b", 2000L);
+		assertEquals(urls, snapshot.lastModified(FsSnapshot.URL));
+		assertEquals(Collections.singletonMap("c", 3000L), snapshot.lastModified(FsSnapshot.CONFIGURATION));
+		assertNull(snapshot.url("scope", "a").getView());
+	}
+
+	@Test
+	public void removedEntriesAreNoLongerFound() throws IOException {
+		FsSnapshot.Writer writer = new FsSnapshot.Writer(mapper);
+		writer.url("a", new FsSalixUrl("scope", "/a", 200, "v", null), 1000L);
+		writer.configuration("a", new FsSalixConfiguration("scope", "a", null), 1000L);
+		FsSnapshot snapshot = read(writer);
+		snapshot.remove(FsSnapshot.URL, "a");
+		assertNull(snapshot.url("scope", "a"));
+		assertEquals("a", snapshot.configuration("scope", "a").getTarget());
+		assertEquals(1, snapshot.size());
+	}
+
+	@Test
+	public void anEmptySnapshotReadsBack() throws IOException {
+		FsSnapshot snapshot = read(new FsSnapshot.Writer(mapper));
+		assertEquals(0, snapshot.size());
+		assertNull(snapshot.url("scope", "a"));
+	}
+
+	@Test
+	public void otherFilesAreRefused() {
+		refused(ByteBuffer.wrap(new byte[0]));
+		refused(ByteBuffer.wrap("not a snapshot at all".getBytes()));
+		ByteBuffer version = ByteBuffer.allocate(16);
+		version.putInt(0x534c5853).putInt(99).putLong(0L).flip();
+		refused(version);
+	}
+
+	@Test
+	public void cutShortFilesAreRefused() throws IOException {
+		FsSnapshot.Writer writer = new FsSnapshot.Writer(mapper);
+		writer.url("about", new FsSalixUrl("scope", "/about", 200, "page", Collections.<String, Object>singletonMap("k", "v")), 1000L);
+		byte[] bytes = writer.toByteArray();
+		for(int length = 16; length < bytes.length; length++)
+			refused(ByteBuffer.wrap(Arrays.copyOf(bytes, length)));
+	}
+
+	private FsSnapshot read(FsSnapshot.Writer writer) throws IOException {
+		// read-only and direct, as a mapping is
+		byte[] bytes = writer.toByteArray();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+		buffer.put(bytes).flip();
+		return FsSnapshot.read(buffer.asReadOnlyBuffer(), mapper);
+	}
+
+	private void refused(ByteBuffer buffer) {
+		try {
+			FsSnapshot.read(buffer, mapper);
+			fail("read " + buffer);
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package org.lukosan.salix.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lukosan.salix.SalixUrl;
+
+/**
+ * The index over a real folder, each url's view standing for its content.
+ */
+public class FsUrlIndexTest {
+
+	private Path root;
+	private NixFsClient client;
+	// the view each url file holds, null where it doesn't parse
+	private final Map<String, String> views = new ConcurrentHashMap<String, String>();
+	private BiFunction<String, String, SalixUrl> reader = (url, scope) -> read(scope, url);
+
+	@Before
+	public void before() throws IOException {
+		root = Files.createTempDirectory("salix-urls");
+		client = new NixFsClient(root.toString());
+	}
+
+	@After
+	public void after() throws IOException {
+		FileUtils.deleteDirectory(root.toFile());
+	}
+
+	@Test
+	public void loadsEveryUrlOfTheScope() throws IOException {
+		write("scope", "about", "about-view");
+		write("scope", "news/today", "news-view");
+		FsUrlIndex index = index();
+		index.load("scope");
+		assertEquals(2, index.size("scope"));
+		assertEquals("about-view", index.get("scope", "about").getView());
+		assertEquals("news-view", index.get("scope", "/news/today").getView());
+		assertNull(index.get("scope", "missing"));
+		assertNull(index.get("other", "about"));
+	}
+
+	@Test
+	public void handsOutCopies() throws IOException {
+		write("scope", "about", "about-view");
+		FsUrlIndex index = index();
+		index.load("scope");
+		SalixUrl first = index.get("scope", "about");
+		first.getMap().put("changed", true);
+		SalixUrl second = index.get("scope", "about");
+		assertNotSame(first, second);
+		assertNull(second.getMap().get("changed"));
+	}
+
+	@Test
+	public void reloadingDropsDeletedUrlsAndKeepsUnreadableOnes() throws IOException {
+		write("scope", "kept", "kept-view");
+		write("scope", "broken", "broken-view");
+		write("scope", "deleted", "deleted-view");
+		FsUrlIndex index = index();
+		index.load("scope");
+		Files.delete(root.resolve("scope/urls/deleted.yml"));
+		views.put("scope/broken", "");
+		index.load("scope");
+		assertNull(index.get("scope", "deleted"));
+		assertEquals("broken-view", index.get("scope", "broken").getView());
+		assertEquals("kept-view", index.get("scope", "kept").getView());
+	}
+
+	@Test
+	public void aChangeHeardWhileLoadingWinsOverWhatTheLoadRead() throws IOException {
+		write("scope", "about", "old-view");
+		FsUrlIndex index = index();
+		BiFunction<String, String, SalixUrl> plain = reader;
+		reader = (url, scope) -> {
+			SalixUrl read = plain.apply(url, scope);
+			// saved and heard of after the load read the old file, before the load stored it
+			reader = plain;
+			write("scope", "about", "new-view");
+			index.changed("scope", "urls", "about.yml");
+			return read;
+		};
+		index.load("scope");
+		assertEquals("new-view", index.get("scope", "about").getView());
+	}
+
+	@Test
+	public void changesToFilesAndFoldersAreApplied() throws IOException {
+		write("scope", "about", "about-view");
+		write("scope", "news/today", "today-view");
+		write("scope", "news/yesterday", "yesterday-view");
+		FsUrlIndex index = index();
+		index.load("scope");
+		write("scope", "contact", "contact-view");
+		index.changed("scope", "urls", "contact.yml");
+		assertEquals("contact-view", index.get("scope", "contact").getView());
+		FileUtils.deleteDirectory(root.resolve("scope/urls/news").toFile());
+		index.changed("scope", "urls", "news");
+		assertNull(index.get("scope", "news/today"));
+		assertNull(index.get("scope", "news/yesterday"));
+		assertEquals(2, index.size("scope"));
+		index.changed("scope", "templates", "page.html");
+		assertEquals(2, index.size("scope"));
+	}
+
+	@Test
+	public void aDeletedScopeIsDropped() throws IOException {
+		write("scope", "about", "about-view");
+		FsUrlIndex index = index();
+		index.load("scope");
+		FileUtils.deleteDirectory(root.resolve("scope").toFile());
+		index.changed("scope", null, null);
+		assertEquals(0, index.size("scope"));
+	}
+
+	private FsUrlIndex index() {
+		return new FsUrlIndex(client, "urls", ".yml", (url, scope) -> reader.apply(url, scope), null);
+	}
+
+	private SalixUrl read(String scope, String url) {
+		String view = views.get(scope + "/" + FsUrlIndex.normalize(url));
+		return null == view || view.isEmpty() ? null : new FsSalixUrl(scope, url, 200, view, new ConcurrentHashMap<String, Object>(Collections.singletonMap("view", view)));
+	}
+
+	private void write(String scope, String url, String view) {
+		try {
+			Path file = root.resolve(scope + "/urls/" + url + ".yml");
+			Files.createDirectories(file.getParent());
+			Files.write(file, view.getBytes(StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		views.put(scope + "/" + url, view);
+	}
+}
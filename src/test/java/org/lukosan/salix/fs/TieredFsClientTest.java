@@ -0,0 +1,272 @@
+package org.lukosan.salix.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The tier over two local folders, one standing in for the remote mount.
+ */
+public class TieredFsClientTest {
+
+	private Path remotePath;
+	private Path localPath;
+	private CountingFsClient remote;
+
+	@Before
+	public void before() throws IOException {
+		remotePath = Files.createTempDirectory("salix-remote");
+		localPath = Files.createTempDirectory("salix-local");
+		remote = new CountingFsClient(remotePath.toString());
+	}
+
+	@After
+	public void after() throws IOException {
+		delete(remotePath);
+		delete(localPath);
+	}
+
+	@Test
+	public void readsAreCopiedAndServedLocally() throws IOException {
+		write(remotePath.resolve("scope/resources/a.css"), "body{}");
+		TieredFsClient tiered = tiered(1024, 60000);
+		assertEquals("body{}", read(tiered, "scope", "resources", "a.css"));
+		assertEquals("body{}", read(tiered, "scope", "resources", "a.css"));
+		assertEquals(1, remote.reads.get());
+		assertTrue(Files.exists(localPath.resolve("scope/resources/a.css")));
+		assertEquals(remote.lastModified("scope", "resources", "a.css"), Files.getLastModifiedTime(localPath.resolve("scope/resources/a.css")).toMillis());
+		assertEquals(6, tiered.getSize());
+	}
+
+	@Test
+	public void missingFilesAreNotCopied() {
+		TieredFsClient tiered = tiered(1024, 60000);
+		assertNull(tiered.getInputStream("scope", "resources", "none.css"));
+		assertFalse(tiered.exists("scope", "resources", "none.css"));
+		assertEquals(0, tiered.getSize());
+	}
+
+	@Test
+	public void putsGoThroughAndDropTheCopy() throws IOException {
+		write(remotePath.resolve("scope/resources/a.css"), "old");
+		TieredFsClient tiered = tiered(1024, 60000);
+		assertEquals("old", read(tiered, "scope", "resources", "a.css"));
+		assertTrue(tiered.putInputStream(stream("new"), "scope", "resources", "a.css"));
+		assertEquals("new", new String(Files.readAllBytes(remotePath.resolve("scope/resources/a.css")), StandardCharsets.UTF_8));
+		assertEquals("new", read(tiered, "scope", "resources", "a.css"));
+	}
+
+	@Test
+	public void remoteChangesAreSeenOnceTheIntervalIsUp() throws IOException {
+		Path file = remotePath.resolve("scope/resources/a.css");
+		write(file, "old");
+		TieredFsClient tiered = tiered(1024, 0L);
+		assertEquals("old", read(tiered, "scope", "resources", "a.css"));
+		write(file, "newer");
+		Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+		assertEquals("newer", read(tiered, "scope", "resources", "a.css"));
+		assertEquals(5, tiered.getSize());
+	}
+
+	@Test
+	public void changesHeardDropTheCopy() throws IOException {
+		Path file = remotePath.resolve("scope/resources/a.css");
+		write(file, "old");
+		write(remotePath.resolve("scope/resources/b.css"), "old");
+		TieredFsClient tiered = tiered(1024, 60000);
+		assertEquals("old", read(tiered, "scope", "resources", "a.css"));
+		assertEquals("old", read(tiered, "scope", "resources", "b.css"));
+		write(file, "new");
+		tiered.changed("scope", "resources", "a.css");
+		assertEquals("new", read(tiered, "scope", "resources", "a.css"));
+		write(remotePath.resolve("scope/resources/b.css"), "newer");
+		tiered.changed("scope", null, null);
+		assertEquals("newer", read(tiered, "scope", "resources", "b.css"));
+	}
+
+	@Test
+	public void leastRecentlyUsedCopiesAreEvicted() throws IOException {
+		write(remotePath.resolve("scope/resources/a.txt"), "aaaa");
+		write(remotePath.resolve("scope/resources/b.txt"), "bbbb");
+		write(remotePath.resolve("scope/resources/c.txt"), "cccc");
+		TieredFsClient tiered = tiered(8, 60000);
+		read(tiered, "scope", "resources", "a.txt");
+		read(tiered, "scope", "resources", "b.txt");
+		read(tiered, "scope", "resources", "a.txt");
+		read(tiered, "scope", "resources", "c.txt");
+		assertEquals(8, tiered.getSize());
+		assertTrue(Files.exists(localPath.resolve("scope/resources/a.txt")));
+		assertFalse(Files.exists(localPath.resolve("scope/resources/b.txt")));
+		assertTrue(Files.exists(localPath.resolve("scope/resources/c.txt")));
+	}
+
+	@Test
+	public void filesOverTheCapAreReadRemotely() throws IOException {
+		write(remotePath.resolve("scope/resources/big.txt"), "0123456789");
+		TieredFsClient tiered = tiered(8, 60000);
+		assertEquals("0123456789", read(tiered, "scope", "resources", "big.txt"));
+		assertFalse(Files.exists(localPath.resolve("scope/resources/big.txt")));
+	}
+
+	@Test
+	public void copiesArePickedUpAfterARestart() throws IOException {
+		write(remotePath.resolve("scope/resources/a.css"), "body{}");
+		read(tiered(1024, 60000), "scope", "resources", "a.css");
+		Files.write(localPath.resolve("scope/resources/.a.css.left-over.tmp"), new byte[] { 1 });
+		TieredFsClient restarted = tiered(1024, 60000);
+		assertEquals(6, restarted.getSize());
+		assertFalse(Files.exists(localPath.resolve("scope/resources/.a.css.left-over.tmp")));
+		assertEquals("body{}", read(restarted, "scope", "resources", "a.css"));
+		assertEquals(1, remote.reads.get());
+	}
+
+	@Test
+	public void concurrentColdReadsMakeOneCopy() throws Exception {
+		write(remotePath.resolve("scope/resources/a.css"), "body{}");
+		CountDownLatch reading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		remote.gate = () -> {
+			reading.countDown();
+			await(release);
+		};
+		TieredFsClient tiered = tiered(1024, 60000);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for(int i = 0; i < 8; i++)
+				results.add(executor.submit(() -> read(tiered, "scope", "resources", "a.css")));
+			assertTrue(reading.await(10, TimeUnit.SECONDS));
+			Thread.sleep(100);
+			release.countDown();
+			for(Future<String> result : results)
+				assertEquals("body{}", result.get(10, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, remote.reads.get());
+	}
+
+	@Test
+	public void aCopyMadeDuringAPutIsDropped() throws Exception {
+		Path file = remotePath.resolve("scope/resources/a.css");
+		write(file, "old");
+		CountDownLatch reading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		remote.gate = () -> {
+			reading.countDown();
+			await(release);
+		};
+		TieredFsClient tiered = tiered(1024, 60000);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			// the reader has the old file open when the put lands
+			Future<String> stale = executor.submit(() -> read(tiered, "scope", "resources", "a.css"));
+			assertTrue(reading.await(10, TimeUnit.SECONDS));
+			remote.gate = null;
+			Future<Boolean> put = executor.submit(() -> tiered.putInputStream(stream("new"), "scope", "resources", "a.css"));
+			while(!"new".equals(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)))
+				Thread.sleep(10);
+			release.countDown();
+			// old, or new if the put dropped the copy before the reader opened it
+			stale.get(10, TimeUnit.SECONDS);
+			assertTrue(put.get(10, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals("new", read(tiered, "scope", "resources", "a.css"));
+	}
+
+	private TieredFsClient tiered(long maxSize, long revalidateMillis) {
+		return new TieredFsClient(remote, localPath.toString(), maxSize, revalidateMillis);
+	}
+
+	private static String read(FsClient client, String... paths) throws IOException {
+		try (InputStream in = client.getInputStream(paths)) {
+			return null == in ? null : IOUtils.toString(in, StandardCharsets.UTF_8);
+		}
+	}
+
+	private static void write(Path file, String content) throws IOException {
+		Files.createDirectories(file.getParent());
+		Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static InputStream stream(String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void delete(Path root) throws IOException {
+		if(!Files.exists(root))
+			return;
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * The remote folder, counting the files opened and holding each open at the gate, if there is one.
+	 */
+	private static class CountingFsClient extends NixFsClient {
+
+		private final AtomicInteger reads = new AtomicInteger();
+		private volatile Runnable gate;
+
+		private CountingFsClient(String rootPath) {
+			super(rootPath);
+		}
+
+		@Override
+		public InputStream getInputStream(String... paths) {
+			InputStream in = super.getInputStream(paths);
+			if(null != in) {
+				reads.incrementAndGet();
+				Runnable gate = this.gate;
+				if(null != gate)
+					gate.run();
+			}
+			return in;
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package org.lukosan.salix.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The queue over a real folder, with a delay long enough that nothing is written until it's flushed.
+ */
+public class WriteBehindFsClientTest {
+
+	private Path root;
+	private CountingFsClient client;
+	private WriteBehindFsClient writeBehind;
+
+	@Before
+	public void before() throws IOException {
+		root = Files.createTempDirectory("salix-write-behind");
+		client = new CountingFsClient(root.toString());
+	}
+
+	@After
+	public void after() throws IOException {
+		if(null != writeBehind)
+			writeBehind.close();
+		FileUtils.deleteDirectory(root.toFile());
+	}
+
+	@Test
+	public void repeatedPutsToAFileCostOneWrite() throws IOException {
+		writeBehind = writeBehind(100, 1024, 3);
+		assertTrue(put("one", "scope/resources/a.css"));
+		assertTrue(put("two", "scope", "resources/a.css"));
+		assertTrue(put("three", "scope/resources", "a.css"));
+		assertEquals(1, writeBehind.getPendingCount());
+		assertEquals(0, client.writes.get());
+		assertEquals("three", read(writeBehind, "scope/resources/a.css"));
+		assertTrue(writeBehind.exists("scope", "resources", "a.css"));
+		assertFalse(Files.exists(root.resolve("scope/resources/a.css")));
+		writeBehind.flush();
+		assertEquals(1, client.writes.get());
+		assertEquals(0, writeBehind.getPendingCount());
+		assertEquals("three", new String(Files.readAllBytes(root.resolve("scope/resources/a.css")), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void queuedFilesAreListed() throws IOException {
+		writeBehind = writeBehind(100, 1024, 3);
+		put("a", "scope/resources/a.css");
+		put("b", "scope/resources/images/b.png");
+		assertEquals(1, writeBehind.listFilesInFolder("scope", "resources").size());
+		assertEquals("images", writeBehind.listFoldersInFolder("scope", "resources").get(0));
+		assertEquals(2, writeBehind.listFilesInSubFolders("scope", "resources").size());
+	}
+
+	@Test
+	public void aFullQueueHoldsPutsUntilItDrains() throws Exception {
+		writeBehind = writeBehind(2, 1024, 3);
+		put("a", "a");
+		put("b", "b");
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<Boolean> third = executor.submit(() -> put("c", "c"));
+			try {
+				third.get(200, TimeUnit.MILLISECONDS);
+				throw new AssertionError("Put to a full queue didn't wait");
+			} catch (TimeoutException e) {
+				// still waiting, as it should be
+			}
+			// a file already queued can be put again without waiting
+			assertTrue(put("again", "a"));
+			writeBehind.flush();
+			assertTrue(third.get(5, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+		writeBehind.flush();
+		assertEquals("again", read(client, "a"));
+		assertEquals("c", read(client, "c"));
+	}
+
+	@Test
+	public void failedWritesAreRetried() throws IOException {
+		writeBehind = writeBehind(100, 1024, 3);
+		client.failures.set(2);
+		put("a", "a");
+		writeBehind.flush();
+		writeBehind.flush();
+		assertTrue(writeBehind.isPending("a"));
+		writeBehind.flush();
+		assertFalse(writeBehind.isPending("a"));
+		assertEquals("a", read(client, "a"));
+		assertEquals(0, writeBehind.getFailureCount());
+	}
+
+	@Test
+	public void writesThatKeepFailingAreDropped() throws IOException {
+		writeBehind = writeBehind(100, 1024, 3);
+		client.failures.set(Integer.MAX_VALUE);
+		put("a", "a");
+		for(int i = 0; i < 3; i++)
+			writeBehind.flush();
+		assertFalse(writeBehind.isPending("a"));
+		assertFalse(writeBehind.exists("a"));
+		assertEquals(1, writeBehind.getFailureCount());
+	}
+
+	@Test
+	public void largeStreamsAreWrittenStraightThrough() throws IOException {
+		writeBehind = writeBehind(100, 4, 3);
+		put("tiny", "a");
+		assertTrue(writeBehind.isPending("a"));
+		put("large enough", "a");
+		assertFalse(writeBehind.isPending("a"));
+		assertEquals(1, client.writes.get());
+		assertEquals("large enough", read(client, "a"));
+	}
+
+	@Test
+	public void anUnlimitedLengthIsAllowed() throws IOException {
+		writeBehind = writeBehind(100, Integer.MAX_VALUE, 3);
+		assertTrue(put("a", "a"));
+		assertTrue(writeBehind.isPending("a"));
+	}
+
+	@Test
+	public void closingWritesEverythingQueued() throws IOException {
+		writeBehind = writeBehind(100, 1024, 3);
+		put("a", "a");
+		put("c", "b/c");
+		writeBehind.close();
+		assertEquals("a", read(client, "a"));
+		assertEquals("c", read(client, "b/c"));
+		// puts after closing go straight through
+		put("d", "d");
+		assertEquals("d", read(client, "d"));
+		writeBehind = null;
+	}
+
+	private WriteBehindFsClient writeBehind(int capacity, int maxLength, int attempts) {
+		return new WriteBehindFsClient(client, 60000, 100, capacity, maxLength, attempts);
+	}
+
+	private boolean put(String content, String... paths) {
+		return writeBehind.putInputStream(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), paths);
+	}
+
+	private static String read(FsClient client, String... paths) throws IOException {
+		try (InputStream in = client.getInputStream(paths)) {
+			return IOUtils.toString(in, StandardCharsets.UTF_8);
+		}
+	}
+
+	private static class CountingFsClient extends NixFsClient {
+
+		private final AtomicInteger writes = new AtomicInteger();
+		private final AtomicInteger failures = new AtomicInteger();
+
+		private CountingFsClient(String rootPath) {
+			super(rootPath);
+		}
+
+		@Override
+		public boolean putInputStream(InputStream in, String... paths) {
+			if(failures.getAndDecrement() > 0) {
+				IOUtils.closeQuietly(in);
+				return false;
+			}
+			writes.incrementAndGet();
+			return super.putInputStream(in, paths);
+		}
+	}
+}